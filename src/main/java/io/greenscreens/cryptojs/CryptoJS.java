@@ -5,14 +5,23 @@ package io.greenscreens.cryptojs;
 
 import java.lang.foreign.MemorySegment;
 
+import io.greenscreens.foreign.annotations.Blocking;
+import io.greenscreens.foreign.annotations.Concurrency;
+import io.greenscreens.foreign.annotations.ErrorProbe;
 import io.greenscreens.foreign.annotations.External;
 import io.greenscreens.foreign.annotations.GarbageCollector;
+import io.greenscreens.foreign.annotations.Result;
 import io.greenscreens.foreign.annotations.Size;
+import io.greenscreens.foreign.annotations.ThreadSafe;
+import io.greenscreens.foreign.annotations.Trivial;
 
 /**
- * Example with automatic type conversion and pointer release
+ * Example with automatic type conversion and pointer release.
+ * Library error state is checked only when function returns null,
+ * and reported as ForeignException with GetError description.
  */
 @External(name = "libs/cryptojs")
+@ErrorProbe(check = "IsError", message = "GetError")
 public interface CryptoJS {
     
     /**
@@ -52,13 +61,27 @@ public interface CryptoJS {
      * 
      * C/C++ requires size of a pointer.
      * Annotation here contains fixed byte length returned, as we know that MD5 always return 16 bytes.
+     * Hashing is short and non-blocking, so data is passed directly from the Java heap.
      */
-    @Size(16) byte[] MD5(final byte[] data, final int length);    
-    @Size(20) byte[] Sha_1(final byte[] data, final int length);
-    @Size(28) byte[] Sha_224(final byte[] data, final int length);
-    @Size(32) byte[] Sha_256(final byte[] data, final int length);
-    @Size(48) byte[] Sha_384(final byte[] data, final int length);
-    @Size(64) byte[] Sha_512(final byte[] data, final int length);
+    @Trivial(heap = true) @Size(16) byte[] MD5(final byte[] data, final int length);    
+    @Trivial(heap = true) @Size(20) byte[] Sha_1(final byte[] data, final int length);
+    @Trivial(heap = true) @Size(28) byte[] Sha_224(final byte[] data, final int length);
+    @Trivial(heap = true) @Size(32) byte[] Sha_256(final byte[] data, final int length);
+    @Trivial(heap = true) @Size(48) byte[] Sha_384(final byte[] data, final int length);
+    @Trivial(heap = true) @Size(64) byte[] Sha_512(final byte[] data, final int length);
+
+    /**
+     * Calculate hash into a caller supplied buffer, allowing buffer reuse
+     * @param data Data to calculate hash
+     * @param length Length of data (required for C/C++ pointer)
+     * @param hash Destination for calculated hash
+     * @return Number of bytes copied into hash
+     * 
+     * Hashing is stateless, so calls can run in parallel batches.
+     */
+    @ThreadSafe @Trivial(heap = true) @Size(16) int MD5(final byte[] data, final int length, @Result final byte[] hash);
+    @ThreadSafe @Trivial(heap = true) @Size(32) int Sha_256(final byte[] data, final int length, @Result final byte[] hash);
+    @ThreadSafe @Trivial(heap = true) @Size(64) int Sha_512(final byte[] data, final int length, @Result final byte[] hash);
 
     /**
      * Calculate HMAC SHA-1 hash
@@ -109,15 +132,17 @@ public interface CryptoJS {
      * @param hashLen Size in bytes (1, 28, 32, 48, 64, 65) or bits (20, 224, 256, 384, 512, 521)
      * @return
      */
-    @Size(index = 5) byte[] PBKDF2_Generate_Key(final byte[] secret, final byte[] salt, final int l1, final int l2, final int iter, final int keyLen, final int hashLen);
+    @Blocking @Size(index = 5) byte[] PBKDF2_Generate_Key(final byte[] secret, final byte[] salt, final int l1, final int l2, final int iter, final int keyLen, final int hashLen);
 
     /**
      * Generate RSA key
      * @param size 1024, 2058, 4096
      * @param exponent recommended 65535
      * @return
+     * 
+     * Key generation is memory heavy, number of concurrent calls is limited.
      */
-    String RSA_Generate_Key(final int size, final int exponent);
+    @Blocking @Concurrency(2) String RSA_Generate_Key(final int size, final int exponent);
     
     /**
      * Check if RSA key exist in cache
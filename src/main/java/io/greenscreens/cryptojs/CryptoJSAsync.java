@@ -0,0 +1,48 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.cryptojs;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.CompletableFuture;
+
+import io.greenscreens.foreign.annotations.ErrorProbe;
+import io.greenscreens.foreign.annotations.External;
+import io.greenscreens.foreign.annotations.GarbageCollector;
+import io.greenscreens.foreign.annotations.Size;
+
+/**
+ * Example with long running functions called asynchronously, 
+ * use with ExternalFactory.createAsync
+ */
+@External(name = "libs/cryptojs")
+@ErrorProbe(check = "IsError", message = "GetError")
+public interface CryptoJSAsync {
+
+    boolean IsError();
+
+    String GetError();
+
+    @GarbageCollector
+    void FreePointer(final MemorySegment pointer);
+
+    /**
+     * Generate random key based on PBKDF2 algorithm, see CryptoJS
+     */
+    @Size(index = 5) CompletableFuture<byte[]> PBKDF2_Generate_Key(final byte[] secret, final byte[] salt, final int l1, final int l2, final int iter, final int keyLen, final int hashLen);
+
+    /**
+     * Generate RSA key
+     * @param size 1024, 2058, 4096
+     * @param exponent recommended 65535
+     * @return Future completed with generated key id
+     */
+    CompletableFuture<String> RSA_Generate_Key(final int size, final int exponent);
+
+    /**
+     * Export private key in PEM format
+     * @param id RSA key id
+     * @return
+     */
+    CompletableFuture<String> RSA_Export_Private_Key_Pem(final String id);
+}
@@ -0,0 +1,311 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Run many calls of a single foreign function in a tight loop.
+ *
+ * Arguments are given as columns, one array element per call
+ * (e.g. byte[][] for byte[] parameter, int[] for int parameter),
+ * or as a constant shared by all calls. Temporary arguments of all calls 
+ * are sliced from one thread scratch frame, released once per chunk of calls
+ * (system property "io.greenscreens.ffm.batch", default 1024).
+ * Results are returned packed into an array of the method return type.
+ * Call chain is composed per run with typed array element getters and setter,
+ * so rows are passed by index without boxing, reflection or argument spreading.
+ *
+ * Functions marked with @ThreadSafe can be run in parallel on a ForkJoinPool;
+ * every worker uses its own thread scratch memory and writes results in place.
+ * Statistics of the last run are available to measure throughput scaling.
+ *
+ * Usage:
+ * <pre>
+ * final int[] sizes = instance.batch(method)
+ *         .column(0, messages)
+ *         .column(1, lengths)
+ *         .column(2, hashes)
+ *         .run();
+ * </pre>
+ */
+public final class Batch {
+
+    private final static int CHUNK = Math.max(1, Integer.getInteger("io.greenscreens.ffm.batch", 1024));
+
+    private final CallPlan plan;
+    private final Generation generation;
+    private final MethodType type;
+    private final Object[] columns;
+    private final boolean[] constants;
+    private int count = -1;
+    private volatile long elapsed;
+    private volatile int workers;
+
+    Batch(final CallPlan plan, final Generation generation) {
+        super();
+        this.plan = plan;
+        this.generation = generation;
+        this.type = plan.type;
+        this.columns = new Object[type.parameterCount()];
+        this.constants = new boolean[columns.length];
+    }
+
+    /**
+     * Set argument values, one array element per call
+     *
+     * @param index Parameter index
+     * @param values Array of parameter type values
+     * @return
+     */
+    public Batch column(final int index, final Object values) {
+        final Class<?> param = type.parameterType(index);
+        if (Objects.isNull(values) || !values.getClass().isArray() || !param.equals(values.getClass().componentType())) {
+            throw new IllegalArgumentException("Column " + index + " must be an array of " + param.getSimpleName());
+        }
+        final int length = Array.getLength(values);
+        if (count > -1 && count != length) {
+            throw new IllegalArgumentException("Column " + index + " length " + length + " differs from batch size " + count);
+        }
+        count = length;
+        columns[index] = values;
+        constants[index] = false;
+        return this;
+    }
+
+    /**
+     * Set argument value shared by all calls
+     *
+     * @param index Parameter index
+     * @param value
+     * @return
+     */
+    public Batch constant(final int index, final Object value) {
+        if (type.parameterType(index).isPrimitive() && Objects.isNull(value)) {
+            throw new IllegalArgumentException("Constant " + index + " of primitive type can not be null");
+        }
+        columns[index] = value;
+        constants[index] = true;
+        return this;
+    }
+
+    /**
+     * Number of calls, defined by columns
+     *
+     * @return
+     */
+    public int size() {
+        return Math.max(count, 0);
+    }
+
+    /**
+     * Call foreign function for every column row
+     *
+     * @param <A> Array of method return type; null for void methods
+     * @return Packed results
+     * @throws UnavailableException if call fails
+     */
+    public <A> A run() {
+        return execute(null);
+    }
+
+    /**
+     * Call foreign function for every column row in parallel on the common ForkJoinPool
+     *
+     * @param <A> Array of method return type; null for void methods
+     * @return Packed results
+     * @throws UnavailableException if function is not marked with @ThreadSafe or call fails
+     */
+    public <A> A parallel() {
+        return parallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Call foreign function for every column row in parallel on the given pool
+     *
+     * @param <A> Array of method return type; null for void methods
+     * @param pool
+     * @return Packed results
+     * @throws UnavailableException if function is not marked with @ThreadSafe or call fails
+     */
+    public <A> A parallel(final ForkJoinPool pool) {
+        if (!plan.signature.threadSafe || Objects.nonNull(plan.owner()) || plan.confined()) {
+            throw new UnavailableException("Parallel batch requires @ThreadSafe foreign function without affinity or confinement " + plan.signature.name);
+        }
+        return execute(Objects.requireNonNull(pool));
+    }
+
+    /**
+     * Duration of the last run in nanoseconds
+     *
+     * @return
+     */
+    public long elapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Parallelism of the last run
+     *
+     * @return
+     */
+    public int workers() {
+        return workers;
+    }
+
+    /**
+     * Calls per second of the last run
+     *
+     * @return
+     */
+    public double throughput() {
+        return elapsed == 0 ? 0 : size() * 1_000_000_000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : %d calls, %d workers, %.1f ms, %.0f calls/s", plan.signature, size(), workers, elapsed / 1_000_000.0, throughput());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A> A execute(final ForkJoinPool pool) {
+        int i = -1;
+        while (++i < columns.length) {
+            if (!constants[i] && Objects.isNull(columns[i])) {
+                throw new IllegalArgumentException("Column " + i + " not set for batch of " + plan.signature);
+            }
+        }
+
+        final Class<?> ret = type.returnType();
+        final int size = size();
+        final Object results = Helpers.isVoid(ret) ? null : Array.newInstance(ret, size);
+        final MethodHandle handle = rows(plan.batch(), results);
+
+        final OwnerThread owner = plan.owner();
+        generation.confine();
+        final int stripe = generation.enter();
+        if (stripe < 0) throw new UnavailableException("Library reloaded, batch must be created again " + plan.signature.name);
+        final long start = System.nanoTime();
+        try {
+            if (Objects.nonNull(owner)) {
+                dispatch(owner, handle, size);
+                workers = 1;
+            } else if (Objects.isNull(pool)) {
+                call(handle, 0, size);
+                workers = 1;
+            } else {
+                final int grain = Math.max(1, size / (pool.getParallelism() * 4));
+                pool.invoke(new Task(handle, 0, size, grain));
+                workers = Math.min(pool.getParallelism(), Math.max(1, size / grain));
+            }
+        } finally {
+            generation.exit(stripe);
+        }
+        elapsed = System.nanoTime() - start;
+        return (A) results;
+    }
+
+    /**
+     * Compose row call (ScratchArena, int)void; arguments are read from columns
+     * at row index and result is stored into results at the same index
+     *
+     * @param handle (ScratchArena, ...J...)R
+     * @param results Array of R, or null for void methods
+     * @return
+     */
+    private MethodHandle rows(final MethodHandle handle, final Object results) {
+        final MethodHandle[] getters = new MethodHandle[columns.length];
+        final int[] reorder = new int[columns.length + 1];
+        int i = -1;
+        while (++i < columns.length) {
+            getters[i] = constants[i]
+                    ? MethodHandles.dropArguments(MethodHandles.constant(type.parameterType(i), columns[i]), 0, int.class)
+                    : MethodHandles.arrayElementGetter(columns[i].getClass()).bindTo(columns[i]);
+            reorder[i + 1] = 1;
+        }
+        final MethodHandle row = MethodHandles.permuteArguments(MethodHandles.filterArguments(handle, 1, getters),
+                MethodType.methodType(handle.type().returnType(), ScratchArena.class, int.class), reorder);
+        if (Objects.isNull(results)) return row.asType(row.type().changeReturnType(void.class));
+        final MethodHandle store = MethodHandles.collectArguments(MethodHandles.arrayElementSetter(results.getClass()).bindTo(results), 1, row);
+        return MethodHandles.permuteArguments(store, MethodType.methodType(void.class, ScratchArena.class, int.class), 1, 0, 1);
+    }
+
+    /**
+     * Run all rows on the owner thread of affinity bound library
+     */
+    private void dispatch(final OwnerThread owner, final MethodHandle handle, final int size) {
+        try {
+            owner.call(() -> {
+                call(handle, 0, size);
+                return null;
+            });
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    /**
+     * Call foreign function for rows in range, 
+     * releasing thread scratch memory once per chunk of calls
+     *
+     * @param handle (ScratchArena, int)void
+     */
+    private void call(final MethodHandle handle, final int from, final int to) {
+        int n = from;
+        try {
+            while (n < to) {
+                final int end = Math.min(to, n + CHUNK);
+                try (ScratchArena arena = plan.scratch()) {
+                    while (n < end) {
+                        handle.invokeExact(arena, n);
+                        n++;
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    /**
+     * Split rows range until grain size is reached
+     */
+    private final class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient MethodHandle handle;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Task(final MethodHandle handle, final int from, final int to, final int grain) {
+            super();
+            this.handle = handle;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                call(handle, from, to);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new Task(handle, from, middle, grain), new Task(handle, middle, to, grain));
+        }
+    }
+}
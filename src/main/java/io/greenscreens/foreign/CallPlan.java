@@ -0,0 +1,763 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.greenscreens.foreign.annotations.Sentinel;
+
+import io.greenscreens.foreign.Converters.Copier;
+import io.greenscreens.foreign.Converters.Decoder;
+import io.greenscreens.foreign.Converters.Encoder;
+
+/**
+ * Precompiled foreign function call, resolved once per interface method.
+ * Argument and result converters are composed with the downcall handle
+ * into a single exact typed MethodHandle chain.
+ */
+final class CallPlan {
+
+    private final static Logger LOG = LoggerFactory.getLogger(CallPlan.class);
+    private final static Set<String> LEAKS = ConcurrentHashMap.newKeySet();
+
+    private final static MethodHandle UNWRAP = ChainGenerator.find(CallPlan.class, "unwrap", MethodType.methodType(Object.class, MemorySegment.class, long.class));
+    private final static MethodHandle COPY = ChainGenerator.find(CallPlan.class, "copy", MethodType.methodType(long.class, MemorySegment.class, long.class, Object.class));
+    private final static MethodHandle RECORD = ChainGenerator.find(CallPlan.class, "record", MethodType.methodType(Object.class, Object.class, MemorySegment.class));
+    private final static MethodHandle RECORD_VOID = ChainGenerator.find(CallPlan.class, "record", MethodType.methodType(void.class, MemorySegment.class));
+    private final static MethodHandle PROBE = ChainGenerator.find(CallPlan.class, "probe", MethodType.methodType(Object.class, Object.class));
+    private final static MethodHandle SUBMIT = ChainGenerator.find(CallPlan.class, "submit", MethodType.methodType(CompletableFuture.class, Object[].class));
+    private final static MethodHandle OFFLOAD = ChainGenerator.find(CallPlan.class, "offload", MethodType.methodType(Object.class, Object[].class));
+    private final static MethodHandle DISPATCH = ChainGenerator.find(CallPlan.class, "dispatch", MethodType.methodType(Object.class, Object[].class));
+    private final static MethodHandle IS_OWNER = ChainGenerator.find(OwnerThread.class, "isOwner", MethodType.methodType(boolean.class));
+    private final static MethodHandle IS_VIRTUAL = ChainGenerator.findStatic(CallPlan.class, "isVirtual", MethodType.methodType(boolean.class));
+    private final static MethodHandle RESOLVE = ChainGenerator.find(CallPlan.class, "resolve", MethodType.methodType(MethodHandle.class));
+
+    final Signature signature;
+    final MethodType type;
+
+    private final Library library;
+    private final OwnerThread owner;
+    private final ScratchArena.Scratch scratch;
+    private final MutableCallSite site;
+    private final Object lock = new Object();
+    private volatile MethodHandle handle;
+
+    private final Encoder[] encoders;
+    private final Decoder decoder;
+    private final Copier copier;
+    private final int resultIndex;
+    private final boolean heap;
+    private final boolean direct;
+    private final boolean release;
+    private final boolean async;
+    private final boolean blocking;
+    private final Permits permits;
+    private final String collectorKey;
+    private final int sizeIndex;
+    private final int sizeValue;
+    private final Sentinel errno;
+    private final Sentinel sentinel;
+
+    private Map<String, CallPlan> collectors;
+    private Map<String, CallPlan> probes;
+    private MethodHandle collector;
+    private MethodHandle check;
+    private MethodHandle message;
+    private volatile MethodHandle exact;
+    private MethodHandle entry;
+    private MethodHandle spread;
+    private MethodHandle batch;
+    private MethodHandle inline;
+    private volatile Executor executor;
+
+    /**
+     * Resolve call plan for interface method linked to the foreign function
+     *
+     * @param signature Foreign function description
+     * @param library Loaded foreign library
+     * @param lazy If true, foreign function is linked on the first call 
+     * @param callbacks Callback generator used for @Callback arguments
+     * @param arena Arena used for callbacks lifetime
+     * @param owner If not null, all calls are executed on the owner thread
+     * @param scratch If not null, calls are confined to the thread owning scratch memory
+     * @throws IllegalAccessException
+     */
+    CallPlan(final Signature signature, final Library library, final boolean lazy, final CallbackGenerator callbacks, final Arena arena, final OwnerThread owner, final ScratchArena.Scratch scratch) throws IllegalAccessException {
+        super();
+        if (signature.async && Objects.nonNull(scratch)) {
+            throw new UnavailableException("Confined instance does not support asynchronous method " + signature.name);
+        }
+        this.signature = signature;
+        this.type = signature.type;
+        this.library = library;
+        this.owner = owner;
+        this.scratch = scratch;
+        this.site = lazy ? new MutableCallSite(type) : null;
+        if (!lazy) this.handle = library.downcall(signature);
+        this.heap = signature.heap;
+        this.encoders = heap ? heapEncoders(signature) : encoders(signature, callbacks, arena);
+        this.direct = signature.direct;
+        this.async = signature.async;
+        this.blocking = signature.blocking && !signature.trivial && Objects.isNull(scratch);
+        this.permits = signature.concurrency > 0 ? new Permits(signature.concurrency) : null;
+        this.decoder = direct ? view(signature) : Converters.decoder(type.returnType());
+
+        final Class<?> ret = type.returnType();
+        this.release = ValueLayout.ADDRESS.equals(Converters.toLayout(ret))
+                && !Helpers.isVoid(ret) && !MemorySegment.class.equals(ret) && !direct;
+
+        this.collectorKey = signature.collectorKey;
+        this.sizeIndex = signature.sizeIndex;
+        this.sizeValue = signature.sizeValue;
+        this.errno = signature.errno;
+        this.sentinel = signature.probe;
+
+        this.resultIndex = signature.result;
+        this.copier = resultIndex < 0 ? null : copier(signature);
+    }
+
+    /**
+     * Provide related call plans, before any plan is linked
+     *
+     * @param collectors Plans of garbage collectors used to release remote pointers
+     * @param probes Plans without parameters, by function name, used as error probes
+     */
+    void bind(final Map<String, CallPlan> collectors, final Map<String, CallPlan> probes) {
+        this.collectors = collectors;
+        this.probes = probes;
+    }
+
+    /**
+     * Compose the call chain, or in lazy mode, prepare call site
+     * which links the foreign function on the first call.
+     */
+    void link() {
+        if (Objects.isNull(site)) {
+            this.entry = resolve();
+        } else {
+            site.setTarget(MethodHandles.foldArguments(MethodHandles.exactInvoker(type), RESOLVE.bindTo(this)));
+            this.entry = site.dynamicInvoker();
+        }
+        final int count = type.parameterCount();
+        this.spread = entry.asType(MethodType.genericMethodType(count)).asSpreader(Object[].class, count);
+        if (async) {
+            this.entry = SUBMIT.bindTo(this).asCollector(Object[].class, count).asType(type.changeReturnType(CompletableFuture.class));
+        }
+    }
+
+    /**
+     * Executor used when interface method returns CompletableFuture
+     *
+     * @param executor if null, shared worker pool is used
+     */
+    void executor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Link foreign function and compose the call chain once; 
+     * in lazy mode, composed chain is published to the call site.
+     *
+     * @return
+     */
+    MethodHandle resolve() {
+        MethodHandle chain = exact;
+        if (Objects.nonNull(chain)) return chain;
+        synchronized (this) {
+            if (Objects.isNull(exact)) {
+                final CallPlan plan = collectors.get(collectorKey);
+                this.collector = Objects.isNull(plan) ? null : plan.handle();
+                if ((release || resultIndex > -1) && Objects.isNull(collector)) {
+                    if (LEAKS.add(signature.toString())) LOG.warn("Memory leak might happen in foreign function {} when mapping a pointer to the Java type and not releasing the remote pointer!", signature);
+                }
+                if (sentinel != Sentinel.NONE) {
+                    this.check = probe(signature.probeCheck, false);
+                    this.message = probe(signature.probeMessage, true);
+                }
+                chain = compose();
+                if (Objects.nonNull(owner)) {
+                    chain = affinity(chain);
+                } else if (blocking) {
+                    chain = offload(chain);
+                }
+                if (Objects.nonNull(site)) {
+                    site.setTarget(chain);
+                    MutableCallSite.syncAll(new MutableCallSite[] { site });
+                }
+                this.exact = chain;
+            }
+            return exact;
+        }
+    }
+
+    /**
+     * Foreign function downcall handle, linked on first use in lazy mode
+     *
+     * @return
+     */
+    MethodHandle handle() {
+        MethodHandle downcall = handle;
+        if (Objects.nonNull(downcall)) return downcall;
+        synchronized (lock) {
+            if (Objects.isNull(handle)) {
+                try {
+                    handle = library.downcall(signature);
+                } catch (Exception e) {
+                    throw new UnavailableException(signature.toString(), e);
+                }
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * Link foreign function and exercise argument and result converters,
+     * allowing JIT to compile them before the first real call.
+     *
+     * @param iterations
+     * @throws UnavailableException if function can not be linked or converters fail
+     */
+    void warmup(final int iterations) {
+        resolve();
+        final Object[] samples = new Object[encoders.length];
+        int i = -1;
+        while (++i < encoders.length) samples[i] = Helpers.sample(type.parameterType(i));
+        int n = iterations;
+        while (--n >= 0) {
+            try (ScratchArena arena = scratch()) {
+                i = -1;
+                while (++i < encoders.length) {
+                    if (Objects.nonNull(encoders[i]) && Objects.nonNull(samples[i])) encoders[i].encode(samples[i], arena);
+                }
+                if (release || direct) decoder.decode(arena.allocate(64).fill((byte) 0));
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UnavailableException(signature.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Call foreign function with argument and result conversion, used by Proxy
+     *
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    Object invoke(final Object[] args) throws Throwable {
+        final Object[] values = Objects.isNull(args) ? new Object[0] : args;
+        if (async) return submit(values);
+        return (Object) spread.invokeExact(values);
+    }
+
+    /**
+     * Run foreign call with argument and result conversion on the executor.
+     * For @ErrNo calls, errno captured on the executor thread 
+     * is stored for the thread waiting on the returned future.
+     *
+     * @param args
+     * @return
+     */
+    CompletableFuture<Object> submit(final Object[] args) {
+        final Executor target = Objects.isNull(executor) ? Workers.pool() : executor;
+        if (Objects.isNull(errno)) return CompletableFuture.supplyAsync(() -> call(spread, args), target);
+        final ErrnoFuture future = new ErrnoFuture();
+        target.execute(() -> future.run(spread, args));
+        return future;
+    }
+
+    /**
+     * Call spread handle from the executor task
+     */
+    private static Object call(final MethodHandle handle, final Object[] args) {
+        try {
+            return (Object) handle.invokeExact(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Exact typed MethodHandle matching interface method signature,
+     * returning CompletableFuture for asynchronous methods.
+     *
+     * @return
+     */
+    MethodHandle exact() {
+        return entry;
+    }
+
+    /**
+     * Call chain with caller provided allocator, used by Batch 
+     * to run many calls within a single scratch frame
+     *
+     * @return (ScratchArena, ...J...)J
+     */
+    MethodHandle batch() {
+        resolve();
+        return batch;
+    }
+
+    /**
+     * Owner thread executing all calls, null if calls are executed on the caller thread
+     *
+     * @return
+     */
+    OwnerThread owner() {
+        return owner;
+    }
+
+    /**
+     * If true, calls are allowed only from the thread which created the instance
+     *
+     * @return
+     */
+    boolean confined() {
+        return Objects.nonNull(scratch);
+    }
+
+    /**
+     * Open scratch memory frame, from the confined instance or the current thread
+     *
+     * @return
+     */
+    ScratchArena scratch() {
+        return Objects.isNull(scratch) ? ScratchArena.open() : scratch.confined();
+    }
+
+    /**
+     * Guard the call chain to run on the owner thread when called from any other thread
+     *
+     * @param chain (...J...)J
+     * @return
+     */
+    private MethodHandle affinity(final MethodHandle chain) {
+        final int count = type.parameterCount();
+        this.inline = chain.asType(MethodType.genericMethodType(count)).asSpreader(Object[].class, count);
+        final MethodHandle target = DISPATCH.bindTo(this).asCollector(Object[].class, count).asType(type);
+        return MethodHandles.guardWithTest(IS_OWNER.bindTo(owner), chain, target);
+    }
+
+    /**
+     * Hand over call to the owner thread and wait for the result;
+     * for @ErrNo calls, errno captured on the owner thread is stored for the caller
+     *
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    Object dispatch(final Object[] args) throws Throwable {
+        if (Objects.isNull(errno)) return owner.call(() -> (Object) inline.invokeExact(args));
+        final int[] code = new int[1];
+        try {
+            return owner.call(() -> {
+                CallState.restore(0);
+                try {
+                    return (Object) inline.invokeExact(args);
+                } finally {
+                    code[0] = CallState.errno();
+                }
+            });
+        } finally {
+            CallState.restore(code[0]);
+        }
+    }
+
+    /**
+     * Guard the call chain to run on a platform worker when called from a virtual thread
+     *
+     * @param chain (...J...)J
+     * @return
+     */
+    private MethodHandle offload(final MethodHandle chain) {
+        final int count = type.parameterCount();
+        this.inline = chain.asType(MethodType.genericMethodType(count)).asSpreader(Object[].class, count);
+        final MethodHandle target = OFFLOAD.bindTo(this).asCollector(Object[].class, count).asType(type);
+        return MethodHandles.guardWithTest(IS_VIRTUAL, target, chain);
+    }
+
+    /**
+     * Execute call on a platform worker and park calling virtual thread until done;
+     * for @ErrNo calls, errno captured on the worker is stored for the virtual thread
+     *
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    Object offload(final Object[] args) throws Throwable {
+        Metrics.offloaded.increment();
+        final CompletableFuture<Object> future;
+        if (Objects.isNull(errno)) {
+            future = CompletableFuture.supplyAsync(() -> call(inline, args), Workers.pool());
+        } else {
+            final ErrnoFuture task = new ErrnoFuture();
+            Workers.pool().execute(() -> task.run(inline, args));
+            future = task;
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw Objects.isNull(e.getCause()) ? e : e.getCause();
+        }
+    }
+
+    static boolean isVirtual() {
+        return Thread.currentThread().isVirtual();
+    }
+
+    /**
+     * Build MethodHandle chain (...J...)J from the downcall handle (...N...)N
+     *
+     * @return
+     */
+    private MethodHandle compose() {
+
+        final boolean capture = Objects.nonNull(errno);
+        MethodHandle chain = capture ? ChainGenerator.capture(handle(), recorder()) : ChainGenerator.withArena(handle());
+        boolean allocate = capture;
+
+        if (resultIndex > -1) chain = ChainGenerator.skip(chain, resultIndex, type.parameterType(resultIndex));
+
+        int i = -1;
+        while (++i < encoders.length) {
+            if (i == resultIndex) continue;
+            final boolean onHeap = heap && type.parameterType(i).isArray();
+            allocate = allocate || (Objects.nonNull(encoders[i]) && !onHeap);
+            chain = ChainGenerator.encode(chain, i, type.parameterType(i), encoders[i]);
+        }
+
+        final Class<?> ret = type.returnType();
+        final Class<?> raw = chain.type().returnType();
+        final boolean isPointer = MemorySegment.class.equals(raw);
+
+        if (sentinel != Sentinel.NONE && !void.class.equals(raw)) {
+            chain = MethodHandles.filterReturnValue(chain, PROBE.bindTo(this).asType(MethodType.methodType(raw, raw)));
+        }
+
+        if (resultIndex > -1) {
+            MethodHandle copy = COPY.bindTo(this);
+            copy = MethodHandles.explicitCastArguments(copy, copy.type().changeReturnType(ret));
+            if (sizeIndex < 0) {
+                chain = ChainGenerator.decode(chain, MethodHandles.insertArguments(copy, 1, (long) sizeValue), resultIndex);
+            } else {
+                chain = ChainGenerator.decode(chain, copy, sizeIndex, resultIndex);
+            }
+        } else if (Void.class.equals(ret)) {
+            chain = MethodHandles.filterReturnValue(chain, MethodHandles.empty(MethodType.methodType(Void.class, MemorySegment.class)));
+        } else if (isPointer && (release || direct || sizeIndex > -1 || sizeValue > 0)) {
+            MethodHandle unwrap = UNWRAP.bindTo(this).asType(MethodType.methodType(ret, MemorySegment.class, long.class));
+            if (sizeIndex < 0) {
+                chain = ChainGenerator.decode(chain, MethodHandles.insertArguments(unwrap, 1, (long) sizeValue));
+            } else {
+                chain = ChainGenerator.decode(chain, unwrap, sizeIndex);
+            }
+        }
+
+        final MethodHandle rows = chain.asType(type.insertParameterTypes(0, ScratchArena.class));
+        final MethodHandle call = ChainGenerator.allocate(chain, allocate, scratch).asType(type);
+        this.batch = Objects.isNull(permits) ? rows : ChainGenerator.limit(rows, permits);
+        return Objects.isNull(permits) ? call : ChainGenerator.limit(call, permits);
+    }
+
+    /**
+     * Concurrency limit of the foreign function
+     *
+     * @return null if calls are not limited
+     */
+    Permits permits() {
+        return permits;
+    }
+
+    private MethodHandle recorder() {
+        final Class<?> ret = handle().type().returnType();
+        return void.class.equals(ret) ? RECORD_VOID.bindTo(this) : RECORD.bindTo(this);
+    }
+
+    /**
+     * Store captured "errno" for the current thread; 
+     * if foreign function result matches sentinel, call failure is reported.
+     *
+     * @param result Raw foreign function result
+     * @param state Captured call state
+     * @return
+     */
+    Object record(final Object result, final MemorySegment state) {
+        final int code = CallState.capture(state);
+        if (Helpers.isSentinel(errno, result)) throw new ForeignException(signature.name, code);
+        return result;
+    }
+
+    void record(final MemorySegment state) {
+        CallState.capture(state);
+    }
+
+    /**
+     * Check library error state when foreign function result matches sentinel;
+     * error is reported as ForeignException with description from the library.
+     * Remote pointer of failed call is released.
+     *
+     * @param result Raw foreign function result
+     * @return
+     * @throws Throwable
+     */
+    Object probe(final Object result) throws Throwable {
+        if (!Helpers.isSentinel(sentinel, result)) return result;
+        int code = 0;
+        if (Objects.nonNull(check)) {
+            final Object state = (Object) check.invokeExact();
+            if (state instanceof Boolean b && !b.booleanValue()) return result;
+            if (state instanceof Number n) {
+                if (n.longValue() == 0) return result;
+                code = n.intValue();
+            }
+        }
+        if ((release || resultIndex > -1) && Objects.nonNull(collector) && result instanceof MemorySegment m && m.address() != 0) {
+            collector.invokeExact(m);
+        }
+        final Object description = Objects.isNull(message) ? null : (Object) message.invokeExact();
+        throw Objects.isNull(description) ? new ForeignException(signature.name, code)
+                : new ForeignException(signature.name, code, description.toString());
+    }
+
+    /**
+     * Resolve exact typed probe function with generic return
+     */
+    private MethodHandle probe(final String name, final boolean isMessage) {
+        if (Helpers.normalize(name).isEmpty()) return null;
+        final CallPlan plan = probes.get(name);
+        if (Objects.isNull(plan)) {
+            throw new UnavailableException("@ErrorProbe function " + name + "() not found for method " + signature.name);
+        }
+        final Class<?> ret = Helpers.unwrap(plan.type.returnType());
+        final boolean valid = isMessage ? String.class.equals(ret)
+                : boolean.class.equals(ret) || int.class.equals(ret) || long.class.equals(ret) || short.class.equals(ret) || byte.class.equals(ret);
+        if (!valid) {
+            throw new UnavailableException("@ErrorProbe function " + name + "() has unsupported return type " + ret.getSimpleName());
+        }
+        return plan.resolve().asType(MethodType.methodType(Object.class));
+    }
+
+    /**
+     * Unwrap result with support for array of primitive types or string
+     * Converts MemorySegment to actual type if supported.
+     *
+     * @param pointer
+     * @param length
+     * @return
+     * @throws Throwable
+     */
+    Object unwrap(final MemorySegment pointer, final long length) throws Throwable {
+        if ((release || direct) && pointer.address() == 0) return null;
+        final MemorySegment data = length > 0 ? pointer.reinterpret(length) : pointer;
+        final Object o = decoder.decode(data);
+        if (release && Objects.nonNull(collector)) collector.invokeExact(pointer);
+        return o;
+    }
+
+    /**
+     * Copy returned "pointer" data into the caller supplied destination and
+     * release remote pointer.
+     *
+     * @param pointer
+     * @param length
+     * @param target
+     * @return number of copied bytes
+     * @throws Throwable
+     */
+    long copy(final MemorySegment pointer, final long length, final Object target) throws Throwable {
+        if (pointer.address() == 0) return 0;
+        try {
+            return copier.copy(pointer.reinterpret(length), target);
+        } finally {
+            if (Objects.nonNull(collector)) collector.invokeExact(pointer);
+        }
+    }
+
+    /**
+     * Resolve copy into @Result destination; method must return int, long or void
+     * and returned data size must be known.
+     */
+    private static Copier copier(final Signature signature) {
+        final Class<?> ret = signature.type.returnType();
+        final Copier copier = Converters.copier(signature.type.parameterType(signature.result));
+        if (Objects.isNull(copier)) {
+            throw new UnavailableException("@Result requires primitive array, ByteBuffer or MemorySegment parameter in method " + signature.name);
+        }
+        if (!int.class.equals(ret) && !long.class.equals(ret) && !void.class.equals(ret)) {
+            throw new UnavailableException("@Result requires int, long or void return type in method " + signature.name);
+        }
+        if (!signature.hasSize()) {
+            throw new UnavailableException("@Result requires @Size in method " + signature.name);
+        }
+        return copier;
+    }
+
+    /**
+     * Resolve direct buffer view for @Direct return, size of native data must be known
+     */
+    private static Decoder view(final Signature signature) {
+        final Decoder decoder = Converters.viewDecoder(signature.type.returnType());
+        if (Objects.isNull(decoder)) {
+            throw new UnavailableException("@Direct requires ByteBuffer or CharBuffer return type in method " + signature.name);
+        }
+        if (!signature.hasSize()) {
+            throw new UnavailableException("@Direct requires @Size in method " + signature.name);
+        }
+        return decoder;
+    }
+
+    /**
+     * Resolve argument converters; callbacks are bound to the instance Arena
+     */
+    private static Encoder[] encoders(final Signature signature, final CallbackGenerator callbacks, final Arena arena) throws IllegalAccessException {
+        final Class<?>[] params = signature.type.parameterArray();
+        final Encoder[] encoders = new Encoder[params.length];
+        int i = -1;
+        while (++i < params.length) {
+            final Class<?> type = params[i];
+            if (Objects.nonNull(signature.callbacks[i])) {
+                encoders[i] = callback(callbacks.initCallback(type, signature.callbacks[i]), arena);
+            } else if (isOutput(signature, i)) {
+                encoders[i] = Converters.outEncoder(type, signature.outputs[i] == Signature.IN_OUT);
+            } else {
+                encoders[i] = Converters.encoder(type);
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * Resolve argument converters for critical calls with heap access.
+     * Every array parameter must be passable from the Java heap and
+     * callbacks are not allowed, as critical function can not call back into Java.
+     * Output arrays are written directly by the foreign function, no write-back is required.
+     */
+    private static Encoder[] heapEncoders(final Signature signature) {
+        final Class<?>[] params = signature.type.parameterArray();
+        final Encoder[] encoders = new Encoder[params.length];
+        int i = -1;
+        while (++i < params.length) {
+            final Class<?> type = params[i];
+            if (Objects.nonNull(signature.callbacks[i]) || MethodHandle.class.equals(type)) {
+                throw new UnavailableException("Callback not allowed in @Trivial(heap = true) method " + signature.name);
+            }
+            if (type.isArray()) {
+                isOutput(signature, i);
+                encoders[i] = Converters.heapEncoder(type);
+                if (Objects.isNull(encoders[i])) {
+                    throw new UnavailableException("Parameter " + i + " of type " + type.getSimpleName() + " can not be passed from heap in method " + signature.name);
+                }
+            } else {
+                final Encoder encoder = Converters.heapEncoder(type);
+                encoders[i] = Objects.isNull(encoder) ? Converters.encoder(type) : encoder;
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * Check if parameter is annotated as output and eligible for write-back
+     */
+    private static boolean isOutput(final Signature signature, final int index) {
+        final boolean isOut = signature.outputs[index] > 0;
+        final Class<?> type = signature.type.parameterType(index);
+        if (isOut && Objects.isNull(Converters.outEncoder(type, false))) {
+            throw new UnavailableException("Parameter " + index + " of type " + type.getSimpleName() + " can not be used as @Out or @InOut in method " + signature.name);
+        }
+        return isOut;
+    }
+
+    private static Encoder callback(final MethodHandle callback, final Arena arena) {
+        if (Objects.isNull(callback)) return (data, gcarena) -> MemorySegment.NULL;
+        final FunctionDescriptor descriptor = ForeignGenerator.buildDescriptor(callback.type().dropParameterTypes(0, 1));
+        return (data, gcarena) -> Objects.isNull(data) ? MemorySegment.NULL : ForeignGenerator.toPointer(callback.bindTo(data), descriptor, arena);
+    }
+
+
+    /**
+     * Future of @ErrNo call executed on another thread. 
+     * Errno captured by the call is stored for the thread waiting on the result.
+     */
+    static final class ErrnoFuture extends CompletableFuture<Object> {
+
+        private volatile int code;
+
+        /**
+         * Execute spread call on the current thread and complete the future
+         *
+         * @param handle
+         * @param args
+         */
+        void run(final MethodHandle handle, final Object[] args) {
+            CallState.restore(0);
+            try {
+                final Object value = call(handle, args);
+                code = CallState.errno();
+                complete(value);
+            } catch (Throwable e) {
+                code = CallState.errno();
+                completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public Object join() {
+            try {
+                return super.join();
+            } finally {
+                restore();
+            }
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            try {
+                return super.get();
+            } finally {
+                restore();
+            }
+        }
+
+        @Override
+        public Object get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return super.get(timeout, unit);
+            } finally {
+                restore();
+            }
+        }
+
+        @Override
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new CompletableFuture<>();
+        }
+
+        private void restore() {
+            if (isDone()) CallState.restore(code);
+        }
+    }
+}
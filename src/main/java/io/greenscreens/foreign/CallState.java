@@ -0,0 +1,52 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Call state captured from the last @ErrNo foreign function call on the current thread
+ */
+public enum CallState {
+    ;
+
+    final static StructLayout LAYOUT = Linker.Option.captureStateLayout();
+    private final static VarHandle ERRNO = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+    private final static ThreadLocal<int[]> local = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * Value of "errno" captured by the last @ErrNo call on the current thread
+     *
+     * @return
+     */
+    public static int errno() {
+        return local.get()[0];
+    }
+
+    /**
+     * Read captured "errno" and store it for the current thread
+     *
+     * @param state Segment of captureStateLayout
+     * @return captured errno
+     */
+    static int capture(final MemorySegment state) {
+        final int errno = (int) ERRNO.get(state, 0L);
+        local.get()[0] = errno;
+        return errno;
+    }
+
+    /**
+     * Store "errno" captured on another thread for the current thread
+     *
+     * @param errno
+     */
+    static void restore(final int errno) {
+        local.get()[0] = errno;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+
+import io.greenscreens.foreign.Converters.Encoder;
+
+/**
+ * Compose foreign function downcall and data converters into a single
+ * exact typed MethodHandle chain, allowing JIT to inline the whole
+ * Java to native call path.
+ */
+enum ChainGenerator {
+    ;
+
+    private final static Lookup lookup = MethodHandles.lookup();
+
+    private final static MethodHandle ENCODE = find(Encoder.class, "encode", MethodType.methodType(Object.class, Object.class, ScratchArena.class));
+    private final static MethodHandle ARENA = findStatic(ScratchArena.class, "open", MethodType.methodType(ScratchArena.class));
+    private final static MethodHandle SCRATCH = find(ScratchArena.Scratch.class, "confined", MethodType.methodType(ScratchArena.class));
+    private final static MethodHandle RELEASE = findStatic(ChainGenerator.class, "release", MethodType.methodType(Object.class, Throwable.class, Object.class, ScratchArena.class));
+    private final static MethodHandle RELEASE_VOID = findStatic(ChainGenerator.class, "release", MethodType.methodType(void.class, Throwable.class, ScratchArena.class));
+    private final static MethodHandle ACQUIRE = find(Permits.class, "acquire", MethodType.methodType(void.class));
+    private final static MethodHandle EXIT = findStatic(ChainGenerator.class, "exit", MethodType.methodType(Object.class, Throwable.class, Object.class, Permits.class));
+    private final static MethodHandle EXIT_VOID = findStatic(ChainGenerator.class, "exit", MethodType.methodType(void.class, Throwable.class, Permits.class));
+    private final static MethodHandle STATE = findStatic(ChainGenerator.class, "state", MethodType.methodType(MemorySegment.class, ScratchArena.class));
+
+    /**
+     * Add leading allocator parameter to the downcall handle
+     *
+     * @param handle
+     * @return
+     */
+    static MethodHandle withArena(final MethodHandle handle) {
+        return MethodHandles.dropArguments(handle, 0, ScratchArena.class);
+    }
+
+    /**
+     * Add leading allocator parameter to the downcall handle with captured call state.
+     * State segment is allocated from the chain allocator and passed 
+     * together with the result to the recorder after the call.
+     *
+     * @param handle (MemorySegment, ...N...)R
+     * @param recorder (R, MemorySegment)R or (MemorySegment)void
+     * @return (Arena, ...N...)R
+     */
+    static MethodHandle capture(final MethodHandle handle, final MethodHandle recorder) {
+        final MethodType type = handle.type();
+        final Class<?> ret = type.returnType();
+        final MethodType target = void.class.equals(ret) ? MethodType.methodType(void.class, MemorySegment.class)
+                : MethodType.methodType(ret, ret, MemorySegment.class);
+        final MethodHandle combined = MethodHandles.collectArguments(recorder.asType(target), 0, handle);
+        final int count = type.parameterCount();
+        final int[] reorder = new int[count + 1];
+        int i = -1;
+        while (++i < count) reorder[i] = i;
+        reorder[count] = 0;
+        return MethodHandles.collectArguments(MethodHandles.permuteArguments(combined, type, reorder), 0, STATE);
+    }
+
+    /**
+     * Replace foreign argument at position with Java argument converted by encoder.
+     * Chain must have leading ScratchArena argument which is shared with encoder.
+     *
+     * @param chain (Arena, ...N...)R
+     * @param position argument position, not counting leading Arena
+     * @param type Java argument type
+     * @param encoder
+     * @return (Arena, ...J...)R
+     */
+    static MethodHandle encode(final MethodHandle chain, final int position, final Class<?> type, final Encoder encoder) {
+        final int index = position + 1;
+        final Class<?> target = chain.type().parameterType(index);
+        if (Objects.isNull(encoder)) return chain.asType(chain.type().changeParameterType(index, type));
+        final MethodHandle filter = MethodHandles.permuteArguments(ENCODE.bindTo(encoder),
+                MethodType.methodType(Object.class, ScratchArena.class, Object.class), 1, 0)
+                .asType(MethodType.methodType(target, ScratchArena.class, type));
+        return shareArena(MethodHandles.collectArguments(chain, index, filter), index);
+    }
+
+    /**
+     * Convert foreign function result with decoder of type (R, ...)J.
+     * Java arguments at given indexes are passed as additional decoder arguments.
+     *
+     * @param chain (Arena, ...J...)R
+     * @param decoder
+     * @param indexes Java argument positions, not counting leading Arena
+     * @return (Arena, ...J...)J
+     */
+    static MethodHandle decode(final MethodHandle chain, final MethodHandle decoder, final int... indexes) {
+        if (indexes.length == 0) return MethodHandles.filterReturnValue(chain, decoder);
+        final MethodType type = chain.type();
+        MethodType target = decoder.type();
+        int i = -1;
+        while (++i < indexes.length) target = target.changeParameterType(i + 1, type.parameterType(indexes[i] + 1));
+        final MethodHandle adapted = decoder.asType(target);
+        final MethodHandle combined = MethodHandles.collectArguments(adapted, 0, chain);
+        final int count = type.parameterCount();
+        final int[] reorder = new int[count + indexes.length];
+        i = -1;
+        while (++i < count) reorder[i] = i;
+        i = -1;
+        while (++i < indexes.length) reorder[count + i] = indexes[i] + 1;
+        return MethodHandles.permuteArguments(combined, type.changeReturnType(adapted.type().returnType()), reorder);
+    }
+
+    /**
+     * Add Java argument not passed to the foreign function
+     *
+     * @param chain (Arena, ...J...)R
+     * @param position argument position, not counting leading Arena
+     * @param type Java argument type
+     * @return (Arena, ...J...)R
+     */
+    static MethodHandle skip(final MethodHandle chain, final int position, final Class<?> type) {
+        return MethodHandles.dropArguments(chain, position + 1, type);
+    }
+
+    /**
+     * Provide thread scratch allocator to the chain, removing leading Arena argument.
+     * Scratch memory is released when call returns or fails.
+     *
+     * @param chain (Arena, ...J...)J
+     * @param required if false, allocator is not used by chain
+     * @param scratch Instance scratch memory, or null to use thread scratch memory
+     * @return (...J...)J
+     */
+    static MethodHandle allocate(final MethodHandle chain, final boolean required, final ScratchArena.Scratch scratch) {
+        if (!required) return MethodHandles.insertArguments(chain, 0, (Object) null);
+        final Class<?> ret = chain.type().returnType();
+        final MethodHandle cleanup = void.class.equals(ret) ? RELEASE_VOID
+                : RELEASE.asType(MethodType.methodType(ret, Throwable.class, ret, ScratchArena.class));
+        final MethodHandle open = Objects.isNull(scratch) ? ARENA : SCRATCH.bindTo(scratch);
+        return MethodHandles.foldArguments(MethodHandles.tryFinally(chain, cleanup), open);
+    }
+
+    /**
+     * Limit number of concurrent executions of the chain;
+     * permit is taken before the call and returned when call returns or fails.
+     *
+     * @param chain (...)R
+     * @param permits
+     * @return (...)R
+     */
+    static MethodHandle limit(final MethodHandle chain, final Permits permits) {
+        final Class<?> ret = chain.type().returnType();
+        final MethodHandle cleanup = void.class.equals(ret) ? MethodHandles.insertArguments(EXIT_VOID, 1, permits)
+                : MethodHandles.insertArguments(EXIT, 2, permits).asType(MethodType.methodType(ret, Throwable.class, ret));
+        return MethodHandles.foldArguments(MethodHandles.tryFinally(chain, cleanup), ACQUIRE.bindTo(permits));
+    }
+
+    private static Object exit(final Throwable error, final Object result, final Permits permits) {
+        permits.release();
+        return result;
+    }
+
+    private static void exit(final Throwable error, final Permits permits) {
+        permits.release();
+    }
+
+    private static MemorySegment state(final ScratchArena arena) {
+        return arena.allocate(CallState.LAYOUT);
+    }
+
+    private static Object release(final Throwable error, final Object result, final ScratchArena arena) {
+        arena.close();
+        return result;
+    }
+
+    private static void release(final Throwable error, final ScratchArena arena) {
+        arena.close();
+    }
+
+    /**
+     * Merge duplicated Arena argument (result of collectArguments) into the leading one
+     */
+    private static MethodHandle shareArena(final MethodHandle chain, final int index) {
+        final MethodType type = chain.type();
+        final int count = type.parameterCount();
+        final int[] reorder = new int[count];
+        int i = -1;
+        while (++i < count) {
+            reorder[i] = i < index ? i : (i == index ? 0 : i - 1);
+        }
+        return MethodHandles.permuteArguments(chain, type.dropParameterTypes(index, index + 1), reorder);
+    }
+
+    static MethodHandle find(final Class<?> owner, final String name, final MethodType type) {
+        try {
+            return lookup.findVirtual(owner, name, type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static MethodHandle findStatic(final Class<?> owner, final String name, final MethodType type) {
+        try {
+            return lookup.findStatic(owner, name, type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
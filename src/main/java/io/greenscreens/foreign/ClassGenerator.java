@@ -0,0 +1,170 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.classfile.ClassBuilder;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.TypeKind;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generate hidden class implementation of @External annotated interface.
+ * Every interface method is compiled into a direct MethodHandle.invokeExact call
+ * over a static final handle, without reflection, boxing or argument arrays.
+ */
+enum ClassGenerator {
+    ;
+
+    private final static Lookup lookup = MethodHandles.lookup();
+    private final static ClassDesc CD_UNAVAILABLE = ClassDesc.of(UnavailableException.class.getName());
+
+    /**
+     * Check if interface can be implemented by a generated hidden class.
+     * Hidden class is defined in this module, so interface must be public
+     * and its package accessible to this module.
+     *
+     * @param type
+     * @return
+     */
+    static boolean isSupported(final Class<?> type) {
+        if (!type.isInterface() || !Modifier.isPublic(type.getModifiers())) return false;
+        return type.getModule().isExported(type.getPackageName(), ClassGenerator.class.getModule());
+    }
+
+    /**
+     * Generate and instantiate hidden class implementing given interface,
+     * linked to the provided handler.
+     *
+     * @param <T>
+     * @param type
+     * @param handler
+     * @return
+     */
+    static <T> T generate(final Class<T> type, final ExternalInvocationHandler handler) {
+        readable(type);
+        final List<Method> methods = methods(type);
+        final List<MethodHandle> handles = methods.stream().map(handler::exact).collect(Collectors.toList());
+        final ClassDesc self = ClassDesc.of(ClassGenerator.class.getPackageName(), type.getSimpleName() + "$Native");
+        final byte[] bytes = ClassFile.of().build(self, builder -> build(builder, self, type, methods, handles));
+        try {
+            final Lookup hidden = lookup.defineHiddenClassWithClassData(bytes, handles, true);
+            final MethodHandle constructor = hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class));
+            return type.cast(constructor.invoke());
+        } catch (Throwable e) {
+            throw new UnavailableException(type.getName(), e);
+        }
+    }
+
+    /**
+     * Hidden class or binding is used from this module, which must read the interface module
+     *
+     * @param type
+     */
+    static void readable(final Class<?> type) {
+        final Module module = ClassGenerator.class.getModule();
+        final Module target = type.getModule();
+        if (!module.canRead(target)) module.addReads(target);
+    }
+
+    /**
+     * List of abstract interface methods to implement. Default and static methods are inherited.
+     *
+     * @param type
+     * @return
+     */
+    static List<Method> methods(final Class<?> type) {
+        final Map<String, Method> unique = Stream.of(type.getMethods())
+                .filter(m -> Modifier.isAbstract(m.getModifiers()))
+                .collect(Collectors.toMap(m -> m.getName() + MethodType.methodType(m.getReturnType(), m.getParameterTypes()).toMethodDescriptorString(), m -> m, (a, b) -> a));
+        return new ArrayList<>(unique.values());
+    }
+
+    private static void build(final ClassBuilder builder, final ClassDesc self, final Class<?> type, final List<Method> methods, final List<MethodHandle> handles) {
+
+        builder.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER);
+        builder.withInterfaceSymbols(describe(type));
+
+        int i = -1;
+        while (++i < methods.size()) {
+            if (handles.get(i) == null) continue;
+            builder.withField(field(i), ConstantDescs.CD_MethodHandle, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL);
+        }
+
+        builder.withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC, code -> code
+                .aload(0)
+                .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                .return_());
+
+        builder.withMethodBody(ConstantDescs.CLASS_INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_STATIC, code -> {
+            int j = -1;
+            while (++j < handles.size()) {
+                if (handles.get(j) == null) continue;
+                code.ldc(DynamicConstantDesc.ofNamed(ConstantDescs.BSM_CLASS_DATA_AT, ConstantDescs.DEFAULT_NAME, ConstantDescs.CD_MethodHandle, j));
+                code.putstatic(self, field(j), ConstantDescs.CD_MethodHandle);
+            }
+            code.return_();
+        });
+
+        i = -1;
+        while (++i < methods.size()) {
+            final Method method = methods.get(i);
+            final boolean available = handles.get(i) != null;
+            final String name = field(i);
+            builder.withMethodBody(method.getName(), describe(method), ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL,
+                    code -> { if (available) invoke(code, self, name, method); else unavailable(code); });
+        }
+    }
+
+    /**
+     * Load static handle, push all arguments and call invokeExact with method signature
+     */
+    private static void invoke(final CodeBuilder code, final ClassDesc self, final String name, final Method method) {
+        code.getstatic(self, name, ConstantDescs.CD_MethodHandle);
+        int slot = 1;
+        for (final Class<?> type : method.getParameterTypes()) {
+            final TypeKind kind = TypeKind.from(type);
+            code.loadLocal(kind, slot);
+            slot += kind.slotSize();
+        }
+        code.invokevirtual(ConstantDescs.CD_MethodHandle, "invokeExact", describe(method));
+        code.return_(TypeKind.from(method.getReturnType()));
+    }
+
+    /**
+     * Method not mapped to the foreign library
+     */
+    private static void unavailable(final CodeBuilder code) {
+        code.new_(CD_UNAVAILABLE)
+            .dup()
+            .invokespecial(CD_UNAVAILABLE, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+            .athrow();
+    }
+
+    private static String field(final int index) {
+        return "handle$" + index;
+    }
+
+    private static ClassDesc describe(final Class<?> type) {
+        return type.describeConstable().orElseThrow();
+    }
+
+    private static MethodTypeDesc describe(final Method method) {
+        return MethodType.methodType(method.getReturnType(), method.getParameterTypes()).describeConstable().orElseThrow();
+    }
+}
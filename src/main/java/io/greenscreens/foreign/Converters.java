@@ -6,10 +6,13 @@ package io.greenscreens.foreign;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
 import java.lang.reflect.Parameter;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.util.Objects;
 
@@ -50,6 +53,30 @@ enum Converters {
         return layout;
     }
 
+    /**
+     * Resolved conversion of Java argument into a foreign function argument
+     */
+    @FunctionalInterface
+    interface Encoder {
+        Object encode(final Object data, final ScratchArena arena) throws Throwable;
+    }
+
+    /**
+     * Resolved conversion of foreign function "pointer" into a Java data type
+     */
+    @FunctionalInterface
+    interface Decoder {
+        Object decode(final MemorySegment data);
+    }
+
+    /**
+     * Resolved copy of foreign function "pointer" data into a caller supplied destination
+     */
+    @FunctionalInterface
+    interface Copier {
+        long copy(final MemorySegment data, final Object target);
+    }
+
     /**
      * Convert method argument from java to format for foreign function call
      *
@@ -58,7 +85,7 @@ enum Converters {
      * @param arena
      * @return
      */
-    static Object toExternal(final Parameter param, final Object data, final Arena arena) {
+    static Object toExternal(final Parameter param, final Object data, final ScratchArena arena) {
         return toExternal(param.getType(), data, arena);
     }
 
@@ -70,69 +97,219 @@ enum Converters {
      * @param arena
      * @return
      */
-    static Object toExternal(final Class<?> klass, final Object data, final Arena arena) {
+    static Object toExternal(final Class<?> klass, final Object data, final ScratchArena arena) {
+        try {
+            return encoder(klass).encode(data, arena);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Resolve converter for method argument from java to format for foreign function call.
+     * Returns null if argument is passed as is.
+     *
+     * @param klass
+     * @return
+     */
+    static Encoder encoder(final Class<?> klass) {
 
         final boolean isArray = klass.isArray();
         final Class<?> type = Helpers.toType(klass);
-        if (!isArray && type.isPrimitive()) return data;
+        if (!isArray && type.isPrimitive()) return null;
 
         if (byte[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_BYTE, Objects.isNull(data) ? new byte[0] : (byte[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_BYTE, Objects.isNull(data) ? new byte[0] : (byte[]) data);
         } else if (boolean[].class.equals(klass)) {
-            final byte[] raw = Helpers.toBytes(Objects.isNull(data) ? new boolean[0] : (boolean[]) data);
-            return arena.allocateFrom(ValueLayout.JAVA_BYTE, raw);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_BYTE, Helpers.toBytes(Objects.isNull(data) ? new boolean[0] : (boolean[]) data));
         } else if (char[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_CHAR, Objects.isNull(data) ? new char[0] : (char[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_CHAR, Objects.isNull(data) ? new char[0] : (char[]) data);
         } else if (double[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_DOUBLE, Objects.isNull(data) ? new double[0] : (double[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_DOUBLE, Objects.isNull(data) ? new double[0] : (double[]) data);
         } else if (float[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_FLOAT, Objects.isNull(data) ? new float[0] : (float[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_FLOAT, Objects.isNull(data) ? new float[0] : (float[]) data);
         } else if (int[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_INT, Objects.isNull(data) ? new int[0] : (int[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_INT, Objects.isNull(data) ? new int[0] : (int[]) data);
         } else if (long[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_LONG, Objects.isNull(data) ? new long[0] : (long[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_LONG, Objects.isNull(data) ? new long[0] : (long[]) data);
         } else if (short[].class.equals(klass)) {
-            return arena.allocateFrom(ValueLayout.JAVA_SHORT, Objects.isNull(data) ? new short[0] : (short[]) data);
+            return (data, arena) -> arena.allocateFrom(ValueLayout.JAVA_SHORT, Objects.isNull(data) ? new short[0] : (short[]) data);
 
         } else if (Boolean.class.equals(type)) {
-            return ((Boolean) data).booleanValue();
+            return (data, arena) -> ((Boolean) data).booleanValue();
         } else if (Byte.class.isAssignableFrom(type)) {
-            return ((Byte) data).byteValue();
+            return (data, arena) -> ((Byte) data).byteValue();
         } else if (Character.class.equals(type)) {
-            return ((Character) data).charValue();
+            return (data, arena) -> ((Character) data).charValue();
         } else if (Double.class.isAssignableFrom(type)) {
-            return ((Double) data).doubleValue();
+            return (data, arena) -> ((Double) data).doubleValue();
         } else if (Float.class.isAssignableFrom(type)) {
-            return ((Float) data).floatValue();
+            return (data, arena) -> ((Float) data).floatValue();
         } else if (Integer.class.isAssignableFrom(type)) {
-            return ((Integer) data).intValue();
+            return (data, arena) -> ((Integer) data).intValue();
         } else if (Long.class.isAssignableFrom(type)) {
-            return ((Long) data).longValue();
+            return (data, arena) -> ((Long) data).longValue();
         } else if (Short.class.isAssignableFrom(type)) {
-            return ((Short) data).shortValue();
+            return (data, arena) -> ((Short) data).shortValue();
 
         } else if (MemorySegment.class.equals(type)) {
-            return data;
+            return null;
         } else if (MethodHandle.class.equals(type)) {
-            return ForeignGenerator.toPointer((MethodHandle) data, arena);
+            return (data, arena) -> ForeignGenerator.toPointer((MethodHandle) data, arena.arena());
         } else if (String.class.equals(type)) {
-            return arena.allocateFrom(Helpers.normalize((String) data));
+            return (data, arena) -> arena.allocateFrom(Helpers.normalize((String) data));
 
         } else if (ByteBuffer.class.isAssignableFrom(type)) {
-            final ByteBuffer buffer = (ByteBuffer) data;
-            final byte[] raw = new byte[buffer.remaining()];
-            buffer.get(raw);
-            return toExternal(byte[].class, raw, arena);
+            return (data, arena) -> Objects.isNull(data) ? MemorySegment.NULL : buffer((ByteBuffer) data, arena);
         } else if (CharBuffer.class.isAssignableFrom(type)) {
-            final CharBuffer buffer = (CharBuffer) data;
-            final char[] raw = new char[buffer.remaining()];
-            buffer.get(raw);
-            return toExternal(char[].class, raw, arena);
+            return (data, arena) -> Objects.isNull(data) ? MemorySegment.NULL : buffer((CharBuffer) data, arena);
         }
 
         throw new RuntimeException("Unsupported data type");
     }
 
+    /**
+     * Direct buffer is passed as is, from position to limit, without copying.
+     * Heap buffer is copied once into the arena. Buffer position is not changed.
+     */
+    private static MemorySegment buffer(final ByteBuffer buffer, final SegmentAllocator arena) {
+        if (buffer.isDirect()) return MemorySegment.ofBuffer(buffer);
+        final MemorySegment segment = arena.allocate(buffer.remaining());
+        segment.asByteBuffer().put(buffer.duplicate());
+        return segment;
+    }
+
+    /**
+     * Direct buffer in native byte order is passed as is, from position to limit, without copying.
+     * Other buffers are copied once into the arena. Buffer position is not changed.
+     */
+    private static MemorySegment buffer(final CharBuffer buffer, final SegmentAllocator arena) {
+        if (buffer.isDirect() && ByteOrder.nativeOrder().equals(buffer.order())) return MemorySegment.ofBuffer(buffer);
+        final MemorySegment segment = arena.allocate(ValueLayout.JAVA_CHAR, buffer.remaining());
+        segment.asByteBuffer().order(ByteOrder.nativeOrder()).asCharBuffer().put(buffer.duplicate());
+        return segment;
+    }
+
+    /**
+     * Resolve converter passing primitive array or array backed buffer as a Java heap
+     * memory segment without copying; allowed only for critical foreign calls with heap access.
+     * Returns null if type can not be passed from the heap.
+     *
+     * @param klass
+     * @return
+     */
+    static Encoder heapEncoder(final Class<?> klass) {
+
+        if (byte[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new byte[0] : (byte[]) data);
+        } else if (char[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new char[0] : (char[]) data);
+        } else if (double[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new double[0] : (double[]) data);
+        } else if (float[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new float[0] : (float[]) data);
+        } else if (int[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new int[0] : (int[]) data);
+        } else if (long[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new long[0] : (long[]) data);
+        } else if (short[].class.equals(klass)) {
+            return (data, arena) -> MemorySegment.ofArray(Objects.isNull(data) ? new short[0] : (short[]) data);
+        } else if (ByteBuffer.class.equals(klass)) {
+            return (data, arena) -> {
+                final ByteBuffer buffer = (ByteBuffer) data;
+                if (Objects.isNull(buffer)) return MemorySegment.NULL;
+                return buffer.hasArray() ? MemorySegment.ofBuffer(buffer) : buffer(buffer, arena);
+            };
+        } else if (CharBuffer.class.equals(klass)) {
+            return (data, arena) -> {
+                final CharBuffer buffer = (CharBuffer) data;
+                if (Objects.isNull(buffer)) return MemorySegment.NULL;
+                return buffer.hasArray() ? MemorySegment.ofBuffer(buffer) : buffer(buffer, arena);
+            };
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolve converter for output array argument. Native memory of array size is allocated
+     * and copied back into the array when the call completes, before scratch frame is closed. 
+     * Returns null if type can not be used as output.
+     *
+     * @param klass
+     * @param copyIn if true, array content is also passed to the foreign function
+     * @return
+     */
+    static Encoder outEncoder(final Class<?> klass, final boolean copyIn) {
+
+        if (!klass.isArray() || !klass.componentType().isPrimitive() || boolean[].class.equals(klass)) return null;
+        final ValueLayout layout = (ValueLayout) toLayout(klass.componentType());
+
+        return (data, arena) -> {
+            if (Objects.isNull(data)) return MemorySegment.NULL;
+            final int length = Array.getLength(data);
+            final MemorySegment segment = arena.allocate(layout, length);
+            if (copyIn) MemorySegment.copy(data, 0, segment, layout, 0, length);
+            arena.onClose(() -> MemorySegment.copy(segment, layout, 0, data, 0, length));
+            return segment;
+        };
+    }
+
+    /**
+     * Resolve copy of "pointer" data into a caller supplied primitive array, ByteBuffer or MemorySegment.
+     * Data is truncated to the destination capacity; copier returns number of copied bytes.
+     * Returns null if type can not be used as a destination.
+     *
+     * @param klass
+     * @return
+     */
+    static Copier copier(final Class<?> klass) {
+
+        if (MemorySegment.class.equals(klass)) {
+            return (data, target) -> {
+                final MemorySegment segment = (MemorySegment) target;
+                final long length = Math.min(data.byteSize(), segment.byteSize());
+                MemorySegment.copy(data, 0, segment, 0, length);
+                return length;
+            };
+        } else if (ByteBuffer.class.equals(klass)) {
+            return (data, target) -> {
+                final ByteBuffer buffer = (ByteBuffer) target;
+                final int length = (int) Math.min(data.byteSize(), buffer.remaining());
+                MemorySegment.ofBuffer(buffer).copyFrom(data.asSlice(0, length));
+                buffer.position(buffer.position() + length);
+                return length;
+            };
+        }
+
+        if (!klass.isArray() || !klass.componentType().isPrimitive() || boolean[].class.equals(klass)) return null;
+        final ValueLayout layout = ((ValueLayout) toLayout(klass.componentType())).withByteAlignment(1);
+
+        return (data, target) -> {
+            final int count = (int) Math.min(data.byteSize() / layout.byteSize(), Array.getLength(target));
+            MemorySegment.copy(data, layout, 0, target, 0, count);
+            return count * layout.byteSize();
+        };
+    }
+
+    /**
+     * Resolve converter returning "pointer" as a direct buffer view over the native memory.
+     * Returns null if type can not be returned as a view.
+     *
+     * @param klass
+     * @return
+     */
+    static Decoder viewDecoder(final Class<?> klass) {
+        if (ByteBuffer.class.equals(klass)) {
+            return data -> data.asByteBuffer().order(ByteOrder.nativeOrder());
+        } else if (CharBuffer.class.equals(klass)) {
+            return data -> data.asByteBuffer().order(ByteOrder.nativeOrder()).asCharBuffer();
+        }
+        return null;
+    }
+
     /**
      * Convert data received from foreign function call to Java data type
      *
@@ -156,79 +333,85 @@ enum Converters {
      * @return
      */
     static Object fromExternal(final Class<?> klass, final MemorySegment pointer, final int length, final Arena arena) {
-
         if (Objects.isNull(pointer)) return null;
+        final MemorySegment data = length > 0 ? pointer.reinterpret(length) : pointer;
+        return decoder(klass).decode(data);
+    }
 
-        final Class<?> type = Helpers.toType(klass);
-        if (Helpers.isVoid(type)) return pointer;
+    /**
+     * Resolve converter for "pointer" received from foreign function call to Java data type.
+     * Pointer must be already resized to the expected data length.
+     *
+     * @param klass
+     * @return
+     */
+    static Decoder decoder(final Class<?> klass) {
 
-        final MemorySegment data = length > 0 ? pointer.reinterpret(length) : pointer;
-        if (MemorySegment.class.equals(klass)) return data;
+        final Class<?> type = Helpers.toType(klass);
+        if (Helpers.isVoid(type)) return data -> data;
+        if (MemorySegment.class.equals(klass)) return data -> data;
 
         if (byte[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_BYTE);
+            return data -> data.toArray(ValueLayout.JAVA_BYTE);
         } else if (boolean[].class.equals(klass)) {
-            final byte[] raw = data.toArray(ValueLayout.JAVA_BYTE);
-            return Helpers.toBoolean(raw);
+            return data -> Helpers.toBoolean(data.toArray(ValueLayout.JAVA_BYTE));
         } else if (char[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_CHAR);
+            return data -> data.toArray(ValueLayout.JAVA_CHAR);
         } else if (double[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_DOUBLE);
+            return data -> data.toArray(ValueLayout.JAVA_DOUBLE);
         } else if (float[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_FLOAT);
+            return data -> data.toArray(ValueLayout.JAVA_FLOAT);
         } else if (int[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_INT);
+            return data -> data.toArray(ValueLayout.JAVA_INT);
         } else if (long[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_LONG);
+            return data -> data.toArray(ValueLayout.JAVA_LONG);
         } else if (short[].class.equals(klass)) {
-            return data.toArray(ValueLayout.JAVA_SHORT);
+            return data -> data.toArray(ValueLayout.JAVA_SHORT);
 
         } else if (byte.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_BYTE, 0);
+            return data -> data.get(ValueLayout.JAVA_BYTE, 0);
         } else if (boolean.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_BOOLEAN, 0);
+            return data -> data.get(ValueLayout.JAVA_BOOLEAN, 0);
         } else if (char.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_CHAR, 0);
+            return data -> data.get(ValueLayout.JAVA_CHAR, 0);
         } else if (double.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_DOUBLE, 0);
+            return data -> data.get(ValueLayout.JAVA_DOUBLE, 0);
         } else if (float.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_FLOAT, 0);
+            return data -> data.get(ValueLayout.JAVA_FLOAT, 0);
         } else if (int.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_INT, 0);
+            return data -> data.get(ValueLayout.JAVA_INT, 0);
         } else if (long.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_LONG, 0);
+            return data -> data.get(ValueLayout.JAVA_LONG, 0);
         } else if (short.class.equals(type)) {
-            return data.get(ValueLayout.JAVA_SHORT, 0);
+            return data -> data.get(ValueLayout.JAVA_SHORT, 0);
 
         } else if (Boolean.class.isAssignableFrom(type)) {
-            return Boolean.valueOf(data.get(ValueLayout.JAVA_BOOLEAN, 0));
+            return data -> Boolean.valueOf(data.get(ValueLayout.JAVA_BOOLEAN, 0));
         } else if (Byte.class.isAssignableFrom(type)) {
-            return Byte.valueOf(data.get(ValueLayout.JAVA_BYTE, 0));
+            return data -> Byte.valueOf(data.get(ValueLayout.JAVA_BYTE, 0));
         } else if (Double.class.isAssignableFrom(type)) {
-            return Double.valueOf(data.get(ValueLayout.JAVA_DOUBLE, 0));
+            return data -> Double.valueOf(data.get(ValueLayout.JAVA_DOUBLE, 0));
         } else if (Float.class.isAssignableFrom(type)) {
-            return Float.valueOf(data.get(ValueLayout.JAVA_FLOAT, 0));
+            return data -> Float.valueOf(data.get(ValueLayout.JAVA_FLOAT, 0));
         } else if (Integer.class.isAssignableFrom(type)) {
-            return Integer.valueOf(data.get(ValueLayout.JAVA_INT, 0));
+            return data -> Integer.valueOf(data.get(ValueLayout.JAVA_INT, 0));
         } else if (Long.class.isAssignableFrom(type)) {
-            return Long.valueOf(data.get(ValueLayout.JAVA_LONG, 0));
+            return data -> Long.valueOf(data.get(ValueLayout.JAVA_LONG, 0));
         } else if (Short.class.isAssignableFrom(type)) {
-            return Short.valueOf(data.get(ValueLayout.JAVA_SHORT, 0));
+            return data -> Short.valueOf(data.get(ValueLayout.JAVA_SHORT, 0));
 
         } else if (Character.class.isAssignableFrom(type)) {
-            return Character.valueOf(data.get(ValueLayout.JAVA_CHAR, 0));
+            return data -> Character.valueOf(data.get(ValueLayout.JAVA_CHAR, 0));
         } else if (String.class.isAssignableFrom(type)) {
-            return data.reinterpret(Integer.MAX_VALUE, arena, null).getString(0);
+            return data -> data.reinterpret(Integer.MAX_VALUE).getString(0);
 
         } else if (ByteBuffer.class.isAssignableFrom(type)) {
-            final byte[] raw = (byte[]) fromExternal(byte[].class, data, length, arena);
-            return ByteBuffer.wrap(raw);
+            return data -> ByteBuffer.wrap(data.toArray(ValueLayout.JAVA_BYTE));
         } else if (CharBuffer.class.isAssignableFrom(type)) {
-            final char[] raw = (char[]) fromExternal(char[].class, data, length, arena);
-            return CharBuffer.wrap(raw);
+            return data -> CharBuffer.wrap(data.toArray(ValueLayout.JAVA_CHAR));
         }
 
-        return data;
+        return data -> data;
     }
 
 }
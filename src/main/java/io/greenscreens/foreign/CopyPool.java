@@ -0,0 +1,169 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Several private copies of the same library behind a single interface, see @External(copies).
+ * Every copy is loaded from its own temporary file, so dynamic loader 
+ * creates a separate instance with its own global state.
+ *
+ * Every call leases a free copy, starting with the home copy of the thread,
+ * and returns it when the call completes. When all copies are in use, 
+ * callers spin briefly and then park with increasing timeout.
+ */
+final class CopyPool implements InvocationHandler, AutoCloseable {
+
+    private final static int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+    private final static long MAX_PARK = 1_000_000;
+    private final static int STRIDE = 16;
+
+    private final ExternalInvocationHandler[] copies;
+    private final AtomicIntegerArray leases;
+
+    /**
+     * Load library copies
+     *
+     * @param caller
+     * @param count Number of copies
+     */
+    CopyPool(final Class<?> caller, final int count) {
+        super();
+        final Path source = Path.of(ExternalInvocationHandler.findLib(caller));
+        if (!Files.isRegularFile(source)) throw new UnavailableException("Library copies require a library file " + source);
+        this.copies = new ExternalInvocationHandler[count];
+        this.leases = new AtomicIntegerArray(count * STRIDE);
+        try {
+            int i = -1;
+            while (++i < count) {
+                final Path copy = copy(source);
+                try {
+                    copies[i] = new ExternalInvocationHandler(caller, false, copy.toString());
+                } finally {
+                    unlink(copy);
+                }
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final int index = lease();
+        Throwable error = null;
+        Object result = null;
+        try {
+            result = copies[index].invoke(proxy, method, args);
+            return result;
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            if (Objects.isNull(error) && result instanceof CompletableFuture<?> future) {
+                future.whenComplete((value, failure) -> release(index));
+            } else {
+                release(index);
+            }
+        }
+    }
+
+    /**
+     * Link and warm up all copies
+     *
+     * @param iterations
+     */
+    void warmup(final int iterations) {
+        for (final ExternalInvocationHandler copy : copies) {
+            copy.warmup(iterations);
+        }
+    }
+
+    /**
+     * Executor used by methods returning CompletableFuture
+     *
+     * @param executor
+     */
+    void executor(final Executor executor) {
+        for (final ExternalInvocationHandler copy : copies) {
+            copy.executor(executor);
+        }
+    }
+
+    /**
+     * Take a free copy, waiting if all are in use
+     */
+    private int lease() {
+        final int home = (int) (Thread.currentThread().threadId() % copies.length);
+        int spins = 0;
+        long park = 1_000;
+        while (true) {
+            int i = -1;
+            while (++i < copies.length) {
+                final int index = (home + i) % copies.length;
+                if (leases.get(index * STRIDE) == 0 && leases.compareAndSet(index * STRIDE, 0, 1)) return index;
+            }
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, park);
+                park = Math.min(MAX_PARK, park * 2);
+            }
+        }
+    }
+
+    private void release(final int index) {
+        leases.set(index * STRIDE, 0);
+    }
+
+    /**
+     * Copy library into a unique temporary file, keeping its extension
+     */
+    static Path copy(final Path source) {
+        final String name = source.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        final String prefix = (dot > 0 ? name.substring(0, dot) : name) + "-";
+        final String suffix = dot > 0 ? name.substring(dot) : "";
+        try {
+            final Path target = Files.createTempFile(prefix, suffix);
+            return Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    /**
+     * Loaded library stays mapped after its file is removed (Linux, Unix);
+     * where loaded file is locked (Windows), it is removed on exit
+     */
+    static void unlink(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Close all copies
+     */
+    @Override
+    public void close() {
+        for (final ExternalInvocationHandler copy : copies) {
+            if (Objects.nonNull(copy)) copy.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.greenscreens.foreign.annotations.Variant;
+
+/**
+ * CPU features used to select optimised library variant, see @Variant.
+ * Read from "/proc/cpuinfo" flags (x86) or features (ARM) of the first processor,
+ * so detection is available only on Linux.
+ * System property "io.greenscreens.ffm.features" (comma separated) overrides detection.
+ * Without detected features, only variants without requirements are used,
+ * reported once with a warning when variants are selected.
+ */
+enum CpuFeatures {
+    ;
+
+    private final static Logger LOG = LoggerFactory.getLogger(CpuFeatures.class);
+    private final static Set<String> FEATURES = detect();
+    private final static AtomicBoolean REPORTED = new AtomicBoolean();
+
+    /**
+     * Supported CPU features
+     *
+     * @return
+     */
+    static Set<String> features() {
+        return FEATURES;
+    }
+
+    /**
+     * If false, features are not available on this system 
+     * and were not set with system property
+     *
+     * @return
+     */
+    static boolean isDetected() {
+        return !FEATURES.isEmpty();
+    }
+
+    /**
+     * First variant with all required features supported, 
+     * feature names are compared case insensitive
+     *
+     * @param variants Ordered from the most optimised
+     * @return null if none matches
+     */
+    static Variant select(final Variant[] variants) {
+        if (variants.length > 0 && !isDetected() && REPORTED.compareAndSet(false, true)) {
+            LOG.warn("CPU features not detected (read from /proc/cpuinfo on Linux only), library variants requiring features are skipped; set system property io.greenscreens.ffm.features to select them");
+        }
+        return Stream.of(variants)
+                .filter(v -> Stream.of(v.features()).allMatch(f -> FEATURES.contains(f.toLowerCase(Locale.ROOT))))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static Set<String> detect() {
+        final String forced = System.getProperty("io.greenscreens.ffm.features");
+        if (Objects.nonNull(forced)) return parse(forced.replace(',', ' '));
+        final Path cpuinfo = Path.of("/proc/cpuinfo");
+        if (!Files.isReadable(cpuinfo)) return Collections.emptySet();
+        try (Stream<String> lines = Files.lines(cpuinfo)) {
+            return lines
+                    .filter(l -> l.startsWith("flags") || l.startsWith("Features"))
+                    .findFirst()
+                    .map(l -> parse(l.substring(l.indexOf(':') + 1)))
+                    .orElse(Collections.emptySet());
+        } catch (IOException e) {
+            return Collections.emptySet();
+        }
+    }
+
+    private static Set<String> parse(final String flags) {
+        return Stream.of(flags.trim().split("\\s+"))
+                .filter(f -> !f.isEmpty())
+                .map(f -> f.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
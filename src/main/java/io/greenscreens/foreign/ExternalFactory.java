@@ -4,6 +4,10 @@
 package io.greenscreens.foreign;
 
 import java.lang.reflect.Proxy;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import io.greenscreens.foreign.annotations.External;
 
 /**
  * Main dynamic foreign function engine.
@@ -25,14 +29,142 @@ public enum ExternalFactory {
     /**
      * Pass an Interface for it's methods to map to the foreign library.
      * This method create reloadable version.  
+     * If compile time generated binding exists, it is used instead of a Proxy.
      * @param <T>
      * @param caller
      * @return
      */
     @SuppressWarnings("unchecked")
     public static <T> Instance<T> createClosable(final Class<T> caller) {
+        if (isIsolated(caller)) return createIsolated(caller);
+        if (copies(caller) > 1) return createCopies(caller, copies(caller));
+        final Instance<T> bound = Linkage.bind(caller);
+        if (Objects.nonNull(bound)) return bound;
         final ExternalInvocationHandler handler = new ExternalInvocationHandler(caller);
         final T t = (T) Proxy.newProxyInstance(caller.getClassLoader(), new Class<?>[] { caller }, handler);
         return new Instance<T>(t, handler);
     }
+
+    /**
+     * Pass an Interface for it's methods to map to the foreign library.
+     * Instead of a Proxy, a hidden class is generated with a direct
+     * MethodHandle call per interface method. If interface is not accessible
+     * to the generator, Proxy based version is used. 
+     * If compile time generated binding exists, it is used instead.
+     *
+     * @param <T>
+     * @param caller
+     * @return
+     */
+    public static <T> Instance<T> createGenerated(final Class<T> caller) {
+        if (isIsolated(caller) || copies(caller) > 1 || !ClassGenerator.isSupported(caller)) return createClosable(caller);
+        final Instance<T> bound = Linkage.bind(caller);
+        if (Objects.nonNull(bound)) return bound;
+        final ExternalInvocationHandler handler = new ExternalInvocationHandler(caller);
+        final T t = ClassGenerator.generate(caller, handler);
+        return new Instance<T>(t, handler);
+    }
+
+    /**
+     * Pass an Interface for it's methods to map to the foreign library.
+     * Methods declared as returning CompletableFuture&lt;X&gt; run the foreign call, 
+     * including argument and result conversion, on the given executor
+     * instead of blocking the caller thread. Other methods are called directly.
+     * Executor should use platform threads, as foreign calls pin virtual threads.
+     * Arguments must not be modified by the caller until the future completes.
+     *
+     * @param <T>
+     * @param caller
+     * @param executor
+     * @return
+     */
+    public static <T> Instance<T> createAsync(final Class<T> caller, final Executor executor) {
+        final Instance<T> instance = createGenerated(caller);
+        instance.executor(Objects.requireNonNull(executor));
+        return instance;
+    }
+
+    /**
+     * Asynchronous version using shared bounded pool of platform threads,
+     * sized by system property "io.greenscreens.ffm.workers".
+     *
+     * @param <T>
+     * @param caller
+     * @return
+     */
+    public static <T> Instance<T> createAsync(final Class<T> caller) {
+        return createAsync(caller, Workers.pool());
+    }
+
+    /**
+     * Pass an Interface for it's methods to map to the foreign library
+     * loaded in a separate worker JVM, see @External(isolated).
+     * A crash within the library terminates only the worker, which is started again;
+     * calls in progress fail with UnavailableException.
+     * Arguments and results are passed through shared memory, 
+     * their size is limited by system property "io.greenscreens.ffm.isolation.slot".
+     *
+     * @param <T>
+     * @param caller
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Instance<T> createIsolated(final Class<T> caller) {
+        final Isolation isolation = new Isolation(caller);
+        final T t = (T) Proxy.newProxyInstance(caller.getClassLoader(), new Class<?>[] { caller }, isolation);
+        return new Instance<T>(t, null, isolation);
+    }
+
+    /**
+     * Pass an Interface for it's methods to map to the foreign library,
+     * loading given number of private library copies, see @External(copies).
+     * Each call is executed by a free copy, so libraries with global state 
+     * can be called in parallel. Library must be a file, not resolved by the system loader.
+     *
+     * @param <T>
+     * @param caller
+     * @param copies
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Instance<T> createCopies(final Class<T> caller, final int copies) {
+        if (copies < 1) throw new IllegalArgumentException("Number of library copies must be positive");
+        final CopyPool pool = new CopyPool(caller, copies);
+        final T t = (T) Proxy.newProxyInstance(caller.getClassLoader(), new Class<?>[] { caller }, pool);
+        return new Instance<T>(t, null, pool);
+    }
+
+    /**
+     * Pass an Interface for it's methods to map to the foreign library,
+     * used only by the current thread. Callback memory and scratch memory for 
+     * arguments are confined to the current thread, avoiding shared memory costs.
+     * Calls, reload and close from other threads fail with WrongThreadException.
+     * Interfaces with asynchronous methods are rejected, @External(affinity, isolated, copies)
+     * and compile time generated bindings are ignored.
+     *
+     * @param <T>
+     * @param caller
+     * @return
+     * @throws UnavailableException if interface has methods returning CompletableFuture
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Instance<T> createConfined(final Class<T> caller) {
+        ForeignGenerator.allowed(caller).stream().filter(Helpers::isAsync).findFirst().ifPresent(m -> {
+            throw new UnavailableException("Asynchronous method " + m.getName() + " is not supported by confined instance of " + caller.getName());
+        });
+        final ExternalInvocationHandler handler = new ExternalInvocationHandler(caller, false, ExternalInvocationHandler.findLib(caller), true);
+        final T t = ClassGenerator.isSupported(caller) ? ClassGenerator.generate(caller, handler)
+                : (T) Proxy.newProxyInstance(caller.getClassLoader(), new Class<?>[] { caller }, handler);
+        return new Instance<T>(t, handler);
+    }
+
+    private static int copies(final Class<?> caller) {
+        final External annotation = caller.getAnnotation(External.class);
+        return Objects.isNull(annotation) ? 1 : annotation.copies();
+    }
+
+    private static boolean isIsolated(final Class<?> caller) {
+        final External annotation = caller.getAnnotation(External.class);
+        return Objects.nonNull(annotation) && annotation.isolated();
+    }
 }
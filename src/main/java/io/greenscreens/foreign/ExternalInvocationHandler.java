@@ -3,60 +3,111 @@
 */
 package io.greenscreens.foreign;
 
-import java.lang.foreign.Arena;
-import java.lang.foreign.MemorySegment;
-import java.lang.foreign.SymbolLookup;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
-import io.greenscreens.foreign.annotations.Callback;
 import io.greenscreens.foreign.annotations.External;
-import io.greenscreens.foreign.annotations.GarbageCollector;
-import io.greenscreens.foreign.annotations.Size;
+import io.greenscreens.foreign.annotations.Variant;
 
 /**
  * Dynamic engine to intercept interface calls and map them to the external
  * library methods.
+ *
+ * Loaded library is held by the current Generation. Exact handles given to 
+ * generated implementations call through MutableCallSites, retargeted on reload.
+ *
+ * Confined handler accepts calls, reload and close only from the thread which created it.
  */
 final class ExternalInvocationHandler implements InvocationHandler, AutoCloseable {
 
-    private final Thread hook;
-    private final Class<?> caller;
-    private final Map<Method, MethodHandle> cache;
-    private final Map<String, MethodHandle> collectors;
+    private final static MethodHandle CLOSED = ChainGenerator.find(ExternalInvocationHandler.class, "closed", MethodType.methodType(UnavailableException.class));
 
-    private final Arena arena;
-    private final SymbolLookup symbolLookup;
+    private final Class<?> caller;
+    private final boolean lazy;
+    private final boolean bound;
+    private final boolean confined;
     private final CallbackGenerator callbacks;
+    private final OwnerThread owner;
+    private final Map<Method, MutableCallSite> sites = new IdentityHashMap<>();
+    private final Map<Signature[], MutableCallSite[]> bindings = new IdentityHashMap<>();
     private final AtomicBoolean closed = new AtomicBoolean();
 
+    private volatile Generation current;
+    private volatile Executor executor;
+
     /**
      * Main constructor, initialize Interface wrapper for remote library
      *
      * @param caller
      */
     ExternalInvocationHandler(final Class<?> caller) {
+        this(caller, false);
+    }
+
+    /**
+     * Initialize Interface wrapper for remote library
+     *
+     * @param caller
+     * @param bound If true, interface is implemented by generated binding 
+     *        which provides signatures through link method
+     */
+    ExternalInvocationHandler(final Class<?> caller, final boolean bound) {
+        this(caller, bound, findLib(caller));
+    }
+
+    /**
+     * Initialize Interface wrapper for the library loaded from the given path
+     *
+     * @param caller
+     * @param bound If true, interface is implemented by generated binding 
+     *        which provides signatures through link method
+     * @param path Library path with extension
+     */
+    ExternalInvocationHandler(final Class<?> caller, final boolean bound, final String path) {
+        this(caller, bound, path, false);
+    }
+
+    /**
+     * Initialize Interface wrapper for the library loaded from the given path
+     *
+     * @param caller
+     * @param bound If true, interface is implemented by generated binding 
+     *        which provides signatures through link method
+     * @param path Library path with extension
+     * @param confined If true, calls are allowed only from the current thread, affinity is ignored
+     */
+    ExternalInvocationHandler(final Class<?> caller, final boolean bound, final String path, final boolean confined) {
         super();
         this.caller = caller;
-        this.arena = Arena.ofShared();
+        this.bound = bound;
+        this.confined = confined;
+        this.lazy = caller.getAnnotation(External.class).lazy();
         this.callbacks = CallbackGenerator.instance();
-        this.symbolLookup = SymbolLookup.libraryLookup(findLib(), arena);
-        this.cache = ForeignGenerator.generate(symbolLookup, caller);
-        this.collectors = filterGC();
-        this.hook = new Thread(() -> ExternalInvocationHandler.this.release());
-        Runtime.getRuntime().addShutdownHook(hook);
-    }
-
-    private Map<String, MethodHandle> filterGC() {
-        return cache.entrySet().stream()
-                .filter(e -> e.getKey().isAnnotationPresent(GarbageCollector.class))
-                .collect(Collectors.toMap(k -> k.getKey().getAnnotation(GarbageCollector.class).value(), v -> v.getValue()));
+        this.owner = caller.getAnnotation(External.class).affinity() && !confined ? new OwnerThread("ffm-owner-" + caller.getSimpleName()) : null;
+        try {
+            this.current = new Generation(1, path, bound ? null : caller, lazy, callbacks, owner, confined);
+        } catch (RuntimeException e) {
+            if (Objects.nonNull(owner)) owner.close();
+            throw e;
+        }
+        LibraryRegistry.register(this);
     }
 
     /**
@@ -64,98 +115,218 @@ final class ExternalInvocationHandler implements InvocationHandler, AutoCloseabl
      */
     @Override
     public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
-        if (!cache.containsKey(method)) throw UnavailableException.create();
-        final MethodHandle handle = cache.get(method);
-        final Object[] arguments = wrap(method, args);
-        final Object ret = Objects.isNull(args) ? handle.invoke() : handle.invoke(arguments);
-        return unwrap(proxy, method, ret, args);
+        while (true) {
+            final Generation generation = current;
+            final CallPlan plan = generation.cache.get(method);
+            if (Objects.isNull(plan)) throw UnavailableException.create();
+            generation.confine();
+            final int stripe = generation.enter();
+            if (stripe > -1) return generation.invoke(plan, args, stripe);
+            if (closed.get()) throw closed();
+        }
     }
 
     /**
-     * Unwrap result with support for array of primitive types or string
-     * Converts MemorySegment to actual type if supported.
+     * Exact typed MethodHandle matching interface method signature.
      *
      * @param method
-     * @param ret Unwrapped data type
+     * @return null if method is not mapped to the foreign function
+     */
+    synchronized MethodHandle exact(final Method method) {
+        final Generation generation = current;
+        final CallPlan plan = generation.cache.get(method);
+        if (Objects.isNull(plan)) return null;
+        final MutableCallSite site = sites.computeIfAbsent(method, m -> site(generation, plan));
+        return site.dynamicInvoker();
+    }
+
+    /**
+     * Interface mapped to the foreign library
+     *
      * @return
-     * @throws Throwable
-     */
-    private Object unwrap(final Object owner, final Method method, final Object ret, final Object[] args) throws Throwable {
-        final int retLen = length(method, args);
-        final Object o = Converters.fromExternal(method.getReturnType(), ret, retLen, arena);
-        if (ret instanceof MemorySegment && !(o instanceof MemorySegment)) {
-         final GarbageCollector gc = method.getAnnotation(GarbageCollector.class);
-         final String key = Objects.nonNull(gc) ? gc.value() : "";
-         final MethodHandle gcHandle = collectors.get(key);
-         if (Objects.nonNull(gcHandle)) {
-             gcHandle.invoke(new Object[] {ret});
-         } else {
-             System.err.println("!! Warning !! memory leak might happen in foreign functions when mapping a pointer to the Java type and not releasing the remote pointer!");
-         }
-        }
-        return o;
+     */
+    Class<?> caller() {
+        return caller;
     }
 
     /**
-     * Wrap arguments into a proper types for foreign function calls
+     * Find call plan for interface method in the current generation, 
+     * also used when interface is implemented by generated binding
      *
      * @param method
-     * @param args
      * @return
-     * @throws IllegalAccessException
      */
-    private Object[] wrap(final Method method, final Object[] args) throws IllegalAccessException {
+    CallPlan plan(final Method method) {
+        return current.plan(method);
+    }
 
-        if (Objects.isNull(args)) return args;
+    /**
+     * Batch runner bound to the current generation
+     *
+     * @param method
+     * @return
+     */
+    Batch batch(final Method method) {
+        final Generation generation = current;
+        return new Batch(generation.plan(method), generation);
+    }
 
-        final Parameter[] params = method.getParameters();
-        final Object[] arguments = new Object[args.length];
-        final Arena gcarena = Arena.ofAuto();
+    /**
+     * Number of library loads, 1 before first reload
+     *
+     * @return
+     */
+    int generation() {
+        return current.number;
+    }
 
-        int i = 0;
+    /**
+     * Link foreign functions described by the generated binding.
+     *
+     * @param signatures
+     * @return Exact typed MethodHandles in the same order as signatures
+     */
+    synchronized MethodHandle[] link(final Signature[] signatures) {
+        final Generation generation = current;
+        final List<CallPlan> list = generation.link(signatures);
+        if (Objects.nonNull(executor)) list.forEach(plan -> plan.executor(executor));
+        final MutableCallSite[] targets = list.stream().map(plan -> site(generation, plan)).toArray(MutableCallSite[]::new);
+        bindings.put(signatures, targets);
+        return Stream.of(targets).map(MutableCallSite::dynamicInvoker).toArray(MethodHandle[]::new);
+    }
 
-        do {
+    /**
+     * Load library again from the given path and switch new calls to it.
+     * Previous library is closed when its calls in progress return.
+     * If new library fails to load or link, previous one stays in use.
+     * Library file already loaded in the process (for example rebuilt in place)
+     * is loaded from a private temporary copy, as dynamic loader 
+     * would return already loaded library for the same file.
+     *
+     * @param path Library path, extension is optional
+     */
+    synchronized void reload(final String path) {
+        if (closed.get()) throw closed();
+        final Generation previous = current;
+        previous.confine();
+        final String lib = library(Helpers.normalize(path));
+        final Path copy = Files.isRegularFile(Path.of(lib)) && LibraryRegistry.isLoaded(lib) ? CopyPool.copy(Path.of(lib)) : null;
+        final Generation next;
+        try {
+            next = new Generation(previous.number + 1, Objects.isNull(copy) ? lib : copy.toString(), bound ? null : caller, lazy, callbacks, owner, confined);
+        } finally {
+            if (Objects.nonNull(copy)) CopyPool.unlink(copy);
+        }
+        final List<MutableCallSite> changed = new ArrayList<>();
+        final List<MethodHandle> targets = new ArrayList<>();
+        try {
+            sites.forEach((method, site) -> {
+                final CallPlan plan = next.cache.get(method);
+                if (Objects.isNull(plan)) throw new UnavailableException("Method " + method.getName() + " is not mapped in " + path);
+                changed.add(site);
+                targets.add(next.track(plan.exact(), site.dynamicInvoker()));
+            });
+            bindings.forEach((signatures, linked) -> {
+                final List<CallPlan> list = next.link(signatures);
+                int i = -1;
+                while (++i < linked.length) {
+                    changed.add(linked[i]);
+                    targets.add(next.track(list.get(i).exact(), linked[i].dynamicInvoker()));
+                }
+            });
+        } catch (RuntimeException e) {
+            next.retire();
+            throw e;
+        }
+        if (Objects.nonNull(executor)) next.plans.forEach(plan -> plan.executor(executor));
+        int i = -1;
+        while (++i < changed.size()) {
+            changed.get(i).setTarget(targets.get(i));
+        }
+        MutableCallSite.syncAll(changed.toArray(MutableCallSite[]::new));
+        current = next;
+        previous.retire();
+    }
 
-            final Object argument = args[i];
-            final Parameter param = params[i];
-            final boolean isCallback = param.isAnnotationPresent(Callback.class);
+    /**
+     * Executor used by methods returning CompletableFuture
+     *
+     * @param executor
+     */
+    void executor(final Executor executor) {
+        this.executor = executor;
+        current.plans.forEach(plan -> plan.executor(executor));
+    }
 
-            if (isCallback) {
-                arguments[i] = callbacks.initCallback(param, argument, arena);
-            } else {
-                arguments[i] = Converters.toExternal(param, argument, gcarena);
+    /**
+     * Link all foreign functions in parallel and exercise data converters.
+     * Errors are rethrown, other failures are collected as suppressed exceptions.
+     *
+     * @param iterations
+     * @throws UnavailableException if any function failed to link or convert
+     */
+    void warmup(final int iterations) {
+        final Generation generation = current;
+        final Queue<RuntimeException> failures = new ConcurrentLinkedQueue<>();
+        final Consumer<CallPlan> action = plan -> {
+            try {
+                plan.warmup(iterations);
+            } catch (RuntimeException e) {
+                failures.add(e);
             }
-
-            i++;
-        } while (i < args.length && i < params.length);
-
-        return arguments;
+        };
+        if (confined) {
+            generation.confine();
+            generation.plans.forEach(action);
+        } else {
+            generation.plans.parallelStream().forEach(action);
+        }
+        if (failures.isEmpty()) return;
+        final UnavailableException error = new UnavailableException("Warmup failed for " + failures.size() + " function(s) of " + caller.getName());
+        failures.forEach(error::addSuppressed);
+        throw error;
     }
 
     /**
-     * Return data type length of specified
-     *
-     * @param method
-     * @param args
-     * @return
+     * Call site of the exact handle tracked by the generation
      */
-    private int length(final Method method, final Object[] args) {
-        final Size size = method.getAnnotation(Size.class);
-        if (Objects.isNull(size)) return 0;
-        return (size.index() > -1) ? (int)args[size.index()] : size.value();
+    private static MutableCallSite site(final Generation generation, final CallPlan plan) {
+        final MutableCallSite site = new MutableCallSite(plan.exact().type());
+        site.setTarget(generation.track(plan.exact(), site.dynamicInvoker()));
+        return site;
     }
 
     /**
      * Normalize external library name. If extension is not specified, 
      * proper one will be set based on currently used OS.
      *
+     * @param caller
      * @return
      */
-    private String findLib() {
+    static String findLib(final Class<?> caller) {
         final External annotation = caller.getAnnotation(External.class);
+        final Variant variant = CpuFeatures.select(annotation.variants());
+        if (Objects.nonNull(variant)) {
+            final String lib = variant.resource().length() > 0
+                    ? LibraryCache.extract(caller, library(variant.resource())).toString()
+                    : library(Helpers.normalize(variant.name()));
+            Metrics.variants.put(caller.getName(), lib);
+            return lib;
+        }
+        if (annotation.resource().length() > 0) return LibraryCache.extract(caller, library(annotation.resource())).toString();
         String lib = Helpers.normalize(annotation.name());
         if (lib.length() == 0 )
             lib = Helpers.normalize(System.getProperties().getProperty(annotation.property()));
+        return library(lib);
+    }
+
+    /**
+     * Add library extension of the current OS, if not specified
+     *
+     * @param lib
+     * @return
+     */
+    private static String library(final String lib) {
         if (Helpers.isWin()) {
             return lib.endsWith(".dll") ? lib : lib + ".dll";
         } else {
@@ -163,15 +334,40 @@ final class ExternalInvocationHandler implements InvocationHandler, AutoCloseabl
         }
     }
 
-    private void release() {
-        if (!closed.getAndSet(true)) arena.close();
+    /**
+     * Close library when calls in progress return, 
+     * new calls through exact handles fail
+     */
+    private synchronized void release() {
+        if (closed.getAndSet(true)) return;
+        final List<MutableCallSite> all = new ArrayList<>(sites.values());
+        bindings.values().forEach(linked -> all.addAll(List.of(linked)));
+        all.forEach(site -> site.setTarget(rejected(site.type())));
+        MutableCallSite.syncAll(all.toArray(MutableCallSite[]::new));
+        if (Objects.nonNull(owner)) owner.close();
+        current.retire();
+    }
+
+    /**
+     * Handle throwing UnavailableException, used after close
+     */
+    private MethodHandle rejected(final MethodType type) {
+        final MethodHandle thrower = MethodHandles.throwException(type.returnType(), UnavailableException.class);
+        final MethodHandle error = MethodHandles.foldArguments(thrower, CLOSED.bindTo(this));
+        return MethodHandles.dropArguments(error, 0, type.parameterList());
+    }
+
+    UnavailableException closed() {
+        return new UnavailableException("Library of " + caller.getName() + " is closed");
     }
     
     /**
      * Auto release all resources. Automatically called when JVM exits.
+     * Confined handler is closed only from its own thread.
      */
     public void close() {
-        if (!closed.get()) Runtime.getRuntime().removeShutdownHook(hook);
+        current.confine();
+        LibraryRegistry.unregister(this);
         release();
     }
 
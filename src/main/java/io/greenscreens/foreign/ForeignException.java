@@ -0,0 +1,43 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+/**
+ * Exception thrown when foreign function reports a failure
+ */
+public class ForeignException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String function;
+    private final int code;
+
+    public ForeignException(final String function, final int code, final String message) {
+        super(message);
+        this.function = function;
+        this.code = code;
+    }
+
+    public ForeignException(final String function, final int code) {
+        this(function, code, function + " failed with error code " + code);
+    }
+
+    /**
+     * Name of the failed foreign function
+     *
+     * @return
+     */
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * Error code reported by the foreign function (errno)
+     *
+     * @return
+     */
+    public int getCode() {
+        return code;
+    }
+}
@@ -9,19 +9,32 @@ import java.lang.foreign.Linker;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import io.greenscreens.foreign.annotations.Blocking;
 import io.greenscreens.foreign.annotations.Callback;
+import io.greenscreens.foreign.annotations.Concurrency;
+import io.greenscreens.foreign.annotations.Direct;
+import io.greenscreens.foreign.annotations.ErrNo;
+import io.greenscreens.foreign.annotations.ErrorProbe;
+import io.greenscreens.foreign.annotations.GarbageCollector;
+import io.greenscreens.foreign.annotations.InOut;
+import io.greenscreens.foreign.annotations.Out;
+import io.greenscreens.foreign.annotations.Size;
+import io.greenscreens.foreign.annotations.ThreadSafe;
 import io.greenscreens.foreign.annotations.Trivial;
 
 /**
@@ -44,59 +57,164 @@ enum ForeignGenerator {
             };
 
     /**
-     * Generate MetohdHandles from provided Interface, 
+     * Generate call plans from provided Interface, 
      * used for foreign functions call
      *
-     * @param symbolLookup
+     * @param library Loaded foreign library
      * @param type
+     * @param lazy If true, foreign functions are linked on the first call
+     * @param callbacks
+     * @param arena Arena used for callbacks lifetime
+     * @param owner If not null, all calls are executed on the owner thread
+     * @param scratch If not null, calls are confined to the thread owning scratch memory
      * @return
      */
-    static Map<Method, MethodHandle> generate(final SymbolLookup symbolLookup, final Class<?> type) {
-        final Map<Method, MethodHandle> cache = new ConcurrentHashMap<>();
+    static Map<Method, CallPlan> generate(final Library library, final Class<?> type, final boolean lazy, final CallbackGenerator callbacks, final Arena arena, final OwnerThread owner, final ScratchArena.Scratch scratch) {
+        final Map<Method, CallPlan> cache = new ConcurrentHashMap<>();
         allowed(type).stream()
-                .forEach(m -> store(cache, m, symbolLookup));
+                .forEach(m -> cache.put(m, plan(signature(m), library, lazy, callbacks, arena, owner, scratch)));
+        link(cache.values());
         return cache;
     }
 
-    private static void store(final Map<Method, MethodHandle> cache, final Method method, final SymbolLookup symbolLookup) {
+    /**
+     * Generate call plans from provided signatures, 
+     * used by compile time generated bindings
+     *
+     * @param library Loaded foreign library
+     * @param signatures
+     * @param lazy If true, foreign functions are linked on the first call
+     * @param callbacks
+     * @param arena Arena used for callbacks lifetime
+     * @param owner If not null, all calls are executed on the owner thread
+     * @param scratch If not null, calls are confined to the thread owning scratch memory
+     * @return Call plans in the same order as signatures
+     */
+    static List<CallPlan> generate(final Library library, final Signature[] signatures, final boolean lazy, final CallbackGenerator callbacks, final Arena arena, final OwnerThread owner, final ScratchArena.Scratch scratch) {
+        final List<CallPlan> plans = Stream.of(signatures)
+                .map(s -> plan(s, library, lazy, callbacks, arena, owner, scratch))
+                .collect(Collectors.toList());
+        link(plans);
+        return plans;
+    }
 
+    private static CallPlan plan(final Signature signature, final Library library, final boolean lazy, final CallbackGenerator callbacks, final Arena arena, final OwnerThread owner, final ScratchArena.Scratch scratch) {
         try {
-            final MethodHandle handle = ForeignGenerator.build(symbolLookup, method);
-            cache.put(method, handle);
+            return new CallPlan(signature, library, lazy, callbacks, arena, owner, scratch);
         } catch (Exception e) {
-            throw new UnavailableException(method.toString(), e);
+            throw new UnavailableException(signature.toString(), e);
         }
     }
 
     /**
-     * Build MethodHandler signature for foreign library function
+     * Resolve garbage collectors and error probes and link all call plans
+     *
+     * @param plans
+     */
+    private static void link(final Collection<CallPlan> plans) {
+        final Map<String, CallPlan> collectors = plans.stream()
+                .filter(p -> p.signature.collector)
+                .collect(Collectors.toMap(p -> p.signature.collectorKey, p -> p));
+        final Map<String, CallPlan> probes = plans.stream()
+                .filter(p -> p.type.parameterCount() == 0)
+                .collect(Collectors.toMap(p -> p.signature.name, p -> p, (a, b) -> a));
+        plans.forEach(p -> p.bind(collectors, probes));
+        plans.forEach(CallPlan::link);
+    }
+
+    /**
+     * Describe foreign function from interface method annotations
      *
      * @param method
      * @return
      */
-    static MethodHandle build(final SymbolLookup lookup, final Method method) {
-        final MemorySegment segment = lookup.find(method.getName()).orElseThrow();
-        final FunctionDescriptor descriptor = ForeignGenerator.buildDescriptor(method);
-        final Linker.Option[] opts = options(method);
-        final MethodHandle handle = linker.downcallHandle(segment, descriptor, opts);
-        final int count = method.getParameterCount();
-        return count == 0 ? handle : handle.asSpreader(Object[].class, count);
+    static Signature signature(final Method method) {
+        final MethodType type = MethodType.methodType(Helpers.returnType(method), method.getParameterTypes());
+        final Signature signature = Signature.of(method.getName(), type, buildDescriptor(method));
+
+        if (Helpers.isAsync(method)) signature.async();
+
+        signature.variadic(Helpers.variadic(method));
+
+        final Trivial trivial = method.getAnnotation(Trivial.class);
+        if (Objects.nonNull(trivial)) signature.trivial(trivial.heap());
+        if (method.isAnnotationPresent(Direct.class)) signature.direct();
+        if (method.isAnnotationPresent(ThreadSafe.class) || method.getDeclaringClass().isAnnotationPresent(ThreadSafe.class)) signature.threadSafe();
+        if (method.isAnnotationPresent(Blocking.class) || method.getDeclaringClass().isAnnotationPresent(Blocking.class)) signature.blocking();
+
+        final Concurrency concurrency = method.getAnnotation(Concurrency.class);
+        if (Objects.nonNull(concurrency)) signature.concurrency(concurrency.value());
+
+        final GarbageCollector gc = method.getAnnotation(GarbageCollector.class);
+        if (Objects.nonNull(gc)) signature.collector(gc.value());
+
+        final Size size = method.getAnnotation(Size.class);
+        if (Objects.nonNull(size)) signature.size(size.value(), size.index());
+
+        signature.result(Helpers.result(method));
+
+        final ErrNo errno = method.getAnnotation(ErrNo.class);
+        if (Objects.nonNull(errno)) signature.errno(errno.value());
+
+        final ErrorProbe probe = probe(method);
+        if (Objects.nonNull(probe)) signature.probe(probe.value(), probe.check(), probe.message());
+
+        final Parameter[] params = method.getParameters();
+        int i = -1;
+        while (++i < params.length) {
+            final Callback callback = params[i].getAnnotation(Callback.class);
+            if (Objects.nonNull(callback)) signature.callback(i, callback.value());
+            if (params[i].isAnnotationPresent(Out.class)) signature.output(i, false);
+            if (params[i].isAnnotationPresent(InOut.class)) signature.output(i, true);
+        }
+        return signature;
+    }
+
+    /**
+     * Find error probe settings for the method, method annotation overrides interface one.
+     * Void methods and probe functions are not probed.
+     *
+     * @param method
+     * @return
+     */
+    static ErrorProbe probe(final Method method) {
+        final ErrorProbe probe = method.isAnnotationPresent(ErrorProbe.class) ? method.getAnnotation(ErrorProbe.class)
+                : method.getDeclaringClass().getAnnotation(ErrorProbe.class);
+        if (Objects.isNull(probe) || Helpers.isVoid(Helpers.returnType(method))) return null;
+        final String name = method.getName();
+        if (name.equals(probe.check()) || name.equals(probe.message())) return null;
+        return probe;
+    }
+
+    /**
+     * Build MethodHandler signature for foreign library function
+     *
+     * @param lookup
+     * @param signature
+     * @return
+     */
+    static MethodHandle build(final SymbolLookup lookup, final Signature signature) {
+        final MemorySegment segment = lookup.find(signature.name).orElseThrow();
+        final Linker.Option[] opts = options(signature);
+        return linker.downcallHandle(segment, signature.descriptor, opts);
     }
 
     /**
      * Generate foreign function calling options; 
      * support for variadic arguments and performance optimizations
      *
-     * @param method
+     * @param signature
      * @return
      */
-    static Linker.Option[] options(final Method method) {
-        final int id = Helpers.variadic(method);
-        final boolean isTrivial = method.isAnnotationPresent(Trivial.class);
-        int size = (isTrivial ? 1 : 0) + (id < 0 ? 0 : 1);
+    static Linker.Option[] options(final Signature signature) {
+        final int id = signature.variadic;
+        final boolean isTrivial = signature.trivial;
+        final boolean isCapture = Objects.nonNull(signature.errno);
+        int size = (isTrivial ? 1 : 0) + (id < 0 ? 0 : 1) + (isCapture ? 1 : 0);
         final Linker.Option[] options = new Linker.Option[size];
         if (id > -1) options[--size] = Linker.Option.firstVariadicArg(id);
-        if (isTrivial) options[--size] = Linker.Option.critical(true);
+        if (isTrivial) options[--size] = Linker.Option.critical(signature.heap);
+        if (isCapture) options[--size] = Linker.Option.captureCallState("errno");
         return options;
     }
 
@@ -112,17 +230,16 @@ enum ForeignGenerator {
 
     /**
      * Verify if method is allowed for foreign function mapping. 
-     * Method return type and arguments must match one of allowed classes
+     * Method return type and all arguments must match one of allowed classes,
+     * same rule as used by the annotation processor
      *
      * @param method
      * @return
      */
     static boolean isAllowed(final Method method) {
-        final Class<?> type = Helpers.toType(method.getReturnType());
+        final Class<?> type = Helpers.toType(Helpers.returnType(method));
         return isAllowed(type)
-                && Stream.of(method.getParameters())
-                        .map(p -> isAllowed(p))
-                        .count() == method.getParameterCount();
+                && Stream.of(method.getParameters()).allMatch(p -> isAllowed(p));
     }
 
     /**
@@ -152,7 +269,8 @@ enum ForeignGenerator {
      * @return
      */
     static FunctionDescriptor buildDescriptor(final Method method) {
-        final boolean isVoid = void.class.equals(method.getReturnType());
+        if (Helpers.result(method) > -1) return FunctionDescriptor.of(ValueLayout.ADDRESS, toLayouts(method));
+        final boolean isVoid = void.class.equals(Helpers.returnType(method));
         return isVoid ? buildVoidDescriptor(method) : buildReturnDescriptor(method);
     }
 
@@ -162,23 +280,27 @@ enum ForeignGenerator {
     }
 
     static FunctionDescriptor buildReturnDescriptor(final Method method) {
-        final Class<?> clazz = method.getReturnType();
+        final Class<?> clazz = Helpers.returnType(method);
         final MemoryLayout[] args = toLayouts(method);
         return args.length == 0 ? FunctionDescriptor.of(Converters.toLayout(clazz)) : FunctionDescriptor.of(Converters.toLayout(clazz), args);
     }
 
     /**
-     * Convert Interface method arguments into a signature for foreign library function
+     * Convert Interface method arguments into a signature for foreign library function.
+     * Parameter receiving returned data is not passed to the foreign function.
      *
      * @param method A method which arguments are to be converted
      * @return
      */
     static MemoryLayout[] toLayouts(final Method method) {
         final Parameter[] params = method.getParameters();
-        final MemoryLayout[] args = new MemoryLayout[params.length];
+        final int result = Helpers.result(method);
+        final MemoryLayout[] args = new MemoryLayout[result < 0 ? params.length : params.length - 1];
         int i = -1;
+        int j = 0;
         while (++i < params.length) {
-            args[i] = Converters.toLayout(params[i].getType());
+            if (i == result) continue;
+            args[j++] = Converters.toLayout(Helpers.unwrap(params[i].getType()));
         }
         return args;
     }
@@ -191,12 +313,16 @@ enum ForeignGenerator {
      * @return
      */
     static MemoryLayout[] tolayouts(final MethodHandle handle) {
-        final Class<?>[] params = handle.type().parameterArray();
+        return tolayouts(handle.type());
+    }
+
+    static MemoryLayout[] tolayouts(final MethodType type) {
+        final Class<?>[] params = type.parameterArray();
         final MemoryLayout[] args = new MemoryLayout[params.length];
-        int i = 0;
-        do {
+        int i = -1;
+        while (++i < params.length) {
             args[i] = Converters.toLayout(params[i]);
-        } while (++i < params.length);
+        }
         return args;
     }
 
@@ -209,30 +335,37 @@ enum ForeignGenerator {
     static MemorySegment toPointer(final MethodHandle handle, final Arena arena) {
         if (Objects.isNull(handle)) return null;
         final FunctionDescriptor descriptor = buildDescriptor(handle);
-        return Linker.nativeLinker().upcallStub(handle, descriptor, arena);
+        return toPointer(handle, descriptor, arena);
     }
 
     /**
-     * Build a descriptor from a callback method, required to create a callback pointer
+     * Convert callback method to a "pointer" with already resolved descriptor
      *
      * @param handle
+     * @param descriptor
+     * @param arena
      * @return
      */
-    static FunctionDescriptor buildDescriptor(final MethodHandle handle) {
+    static MemorySegment toPointer(final MethodHandle handle, final FunctionDescriptor descriptor, final Arena arena) {
         if (Objects.isNull(handle)) return null;
-        final boolean isVoid = void.class.equals(handle.type().returnType());
-        return isVoid ? buildVoidDescriptor(handle) : buildReturnDescriptor(handle);
+        return linker.upcallStub(handle, descriptor, arena);
     }
 
-    static FunctionDescriptor buildVoidDescriptor(final MethodHandle handle) {
-        final MemoryLayout[] args = tolayouts(handle);
-        return FunctionDescriptor.ofVoid(args);
+    /**
+     * Build a descriptor from a callback method, required to create a callback pointer
+     *
+     * @param handle
+     * @return
+     */
+    static FunctionDescriptor buildDescriptor(final MethodHandle handle) {
+        if (Objects.isNull(handle)) return null;
+        return buildDescriptor(handle.type());
     }
 
-    static FunctionDescriptor buildReturnDescriptor(final MethodHandle handle) {
-        final Class<?> clazz = handle.type().returnType();
-        final MemoryLayout[] args = tolayouts(handle);
-        return FunctionDescriptor.of(Converters.toLayout(clazz), args);
+    static FunctionDescriptor buildDescriptor(final MethodType type) {
+        final boolean isVoid = void.class.equals(type.returnType());
+        final MemoryLayout[] args = tolayouts(type);
+        return isVoid ? FunctionDescriptor.ofVoid(args) : FunctionDescriptor.of(Converters.toLayout(type.returnType()), args);
     }
 
 }
@@ -0,0 +1,254 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.Arena;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Loaded foreign library with its linked call plans, library is shared 
+ * through LibraryRegistry and arena is used for callbacks lifetime.
+ * On reload, a new generation takes over new calls, while the previous one
+ * is retired and closed only after all its calls in progress return.
+ *
+ * Calls in progress are counted per stripe (home stripe by thread), 
+ * a call entering retired generation leaves immediately and 
+ * is passed to the current one, so callers never wait for the switch.
+ *
+ * Confined generation uses confined arena and its own scratch memory,
+ * calls from other threads fail with WrongThreadException.
+ */
+final class Generation {
+
+    private final static int STRIDE = 16;
+
+    private final static MethodHandle ENTER = ChainGenerator.find(Generation.class, "enter", MethodType.methodType(int.class));
+    private final static MethodHandle EXIT = ChainGenerator.find(Generation.class, "exit", MethodType.methodType(void.class, int.class));
+    private final static MethodHandle SETTLE = ChainGenerator.find(Generation.class, "settle", MethodType.methodType(Object.class, Throwable.class, Object.class, int.class));
+    private final static MethodHandle IS_REJECTED = ChainGenerator.findStatic(Generation.class, "isRejected", MethodType.methodType(boolean.class, int.class));
+    private final static MethodHandle IS_CONFINED = ChainGenerator.find(Generation.class, "isConfined", MethodType.methodType(boolean.class));
+    private final static MethodHandle WRONG_THREAD = ChainGenerator.findStatic(Generation.class, "wrongThread", MethodType.methodType(WrongThreadException.class));
+
+    final int number;
+    final Map<Method, CallPlan> cache;
+    final Collection<CallPlan> plans;
+
+    private final boolean lazy;
+    private final Arena arena;
+    private final Library library;
+    private final CallbackGenerator callbacks;
+    private final OwnerThread owner;
+    private final Thread thread;
+    private final ScratchArena.Scratch scratch;
+
+    private final int mask;
+    private final AtomicIntegerArray readers;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean retired;
+
+    /**
+     * Load library and link interface methods
+     *
+     * @param number Sequence number, starting with 1
+     * @param path Library path, loaded through LibraryRegistry
+     * @param caller Interface, or null if linked through generated binding
+     * @param lazy If true, foreign functions are linked on the first call
+     * @param callbacks
+     * @param owner If not null, all calls are executed on the owner thread
+     * @param confined If true, calls are allowed only from the current thread
+     */
+    Generation(final int number, final String path, final Class<?> caller, final boolean lazy, final CallbackGenerator callbacks, final OwnerThread owner, final boolean confined) {
+        super();
+        this.number = number;
+        this.lazy = lazy;
+        this.callbacks = callbacks;
+        this.owner = owner;
+        this.thread = confined ? Thread.currentThread() : null;
+        this.mask = confined ? 0 : Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) - 1;
+        this.readers = new AtomicIntegerArray((mask + 1) * STRIDE);
+        this.library = LibraryRegistry.acquire(path);
+        this.arena = confined ? Arena.ofConfined() : Arena.ofShared();
+        this.scratch = confined ? new ScratchArena.Scratch(true) : null;
+        try {
+            this.cache = Objects.isNull(caller) ? Map.of() : ForeignGenerator.generate(library, caller, lazy, callbacks, arena, owner, scratch);
+        } catch (RuntimeException e) {
+            arena.close();
+            if (Objects.nonNull(scratch)) scratch.release();
+            LibraryRegistry.release(library);
+            throw e;
+        }
+        this.plans = new ConcurrentLinkedQueue<>(cache.values());
+    }
+
+    /**
+     * Link foreign functions described by the generated binding
+     *
+     * @param signatures
+     * @return Call plans in the same order as signatures
+     */
+    List<CallPlan> link(final Signature[] signatures) {
+        final List<CallPlan> list = ForeignGenerator.generate(library, signatures, lazy, callbacks, arena, owner, scratch);
+        plans.addAll(list);
+        return list;
+    }
+
+    /**
+     * Find call plan for interface method, 
+     * also used when interface is implemented by generated binding
+     *
+     * @param method
+     * @return
+     */
+    CallPlan plan(final Method method) {
+        final CallPlan plan = cache.get(method);
+        if (Objects.nonNull(plan)) return plan;
+        final MethodType type = MethodType.methodType(Helpers.returnType(method), method.getParameterTypes());
+        return plans.stream()
+                .filter(p -> p.signature.name.equals(method.getName()) && p.type.equals(type))
+                .findFirst()
+                .orElseThrow(() -> new UnavailableException("Method " + method.getName() + " is not mapped to the foreign function"));
+    }
+
+    /**
+     * Register a call in progress
+     *
+     * @return stripe to be passed to exit, or -1 if generation is retired
+     */
+    int enter() {
+        final int stripe = (int) Thread.currentThread().threadId() & mask;
+        readers.getAndIncrement(stripe * STRIDE);
+        if (!retired) return stripe;
+        exit(stripe);
+        return -1;
+    }
+
+    /**
+     * Unregister a call, the last call of the retired generation closes it
+     *
+     * @param stripe
+     */
+    void exit(final int stripe) {
+        if (readers.decrementAndGet(stripe * STRIDE) == 0 && retired) drain();
+    }
+
+    /**
+     * Unregister call when it completes; for asynchronous methods,
+     * when returned future completes
+     *
+     * @param error
+     * @param result
+     * @param stripe
+     * @return
+     */
+    Object settle(final Throwable error, final Object result, final int stripe) {
+        if (Objects.isNull(error) && result instanceof CompletableFuture<?> future) {
+            future.whenComplete((value, failure) -> exit(stripe));
+        } else {
+            exit(stripe);
+        }
+        return result;
+    }
+
+    /**
+     * Call through the proxy
+     *
+     * @param plan
+     * @param args
+     * @param stripe Returned by enter
+     * @return
+     * @throws Throwable
+     */
+    Object invoke(final CallPlan plan, final Object[] args, final int stripe) throws Throwable {
+        Throwable error = null;
+        Object result = null;
+        try {
+            result = plan.invoke(args);
+            return result;
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            settle(error, result, stripe);
+        }
+    }
+
+    /**
+     * Wrap exact call handle with enter and exit of this generation.
+     * If generation is retired, call is passed to the fallback.
+     *
+     * @param exact
+     * @param fallback Handle of the same type calling the current generation
+     * @return
+     */
+    MethodHandle track(final MethodHandle exact, final MethodHandle fallback) {
+        final Class<?> ret = exact.type().returnType();
+        final MethodHandle cleanup = void.class.equals(ret)
+                ? MethodHandles.dropArguments(EXIT.bindTo(this), 0, Throwable.class)
+                : SETTLE.bindTo(this).asType(MethodType.methodType(ret, Throwable.class, ret, int.class));
+        final MethodHandle body = MethodHandles.tryFinally(MethodHandles.dropArguments(exact, 0, int.class), cleanup);
+        final MethodHandle guarded = MethodHandles.guardWithTest(IS_REJECTED, MethodHandles.dropArguments(fallback, 0, int.class), body);
+        final MethodHandle tracked = MethodHandles.foldArguments(guarded, ENTER.bindTo(this));
+        if (Objects.isNull(thread)) return tracked;
+        final MethodHandle thrower = MethodHandles.throwException(ret, WrongThreadException.class);
+        final MethodHandle wrong = MethodHandles.dropArguments(MethodHandles.foldArguments(thrower, WRONG_THREAD), 0, exact.type().parameterList());
+        return MethodHandles.guardWithTest(IS_CONFINED.bindTo(this), tracked, wrong);
+    }
+
+    /**
+     * Reject calls to confined generation from other threads
+     *
+     * @throws WrongThreadException
+     */
+    void confine() {
+        if (!isConfined()) throw wrongThread();
+    }
+
+    /**
+     * If true, call is made from the thread owning confined generation, 
+     * always true if generation is not confined
+     *
+     * @return
+     */
+    boolean isConfined() {
+        return Objects.isNull(thread) || thread == Thread.currentThread();
+    }
+
+    /**
+     * Stop accepting new calls, close when calls in progress return
+     */
+    void retire() {
+        retired = true;
+        drain();
+    }
+
+    static boolean isRejected(final int stripe) {
+        return stripe < 0;
+    }
+
+    static WrongThreadException wrongThread() {
+        return new WrongThreadException("Confined library instance called from another thread");
+    }
+
+    private void drain() {
+        int i = -1;
+        while (++i <= mask) {
+            if (readers.get(i * STRIDE) != 0) return;
+        }
+        if (!closed.compareAndSet(false, true)) return;
+        arena.close();
+        if (Objects.nonNull(scratch)) scratch.release();
+        LibraryRegistry.release(library);
+    }
+}
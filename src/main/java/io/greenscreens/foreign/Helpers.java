@@ -5,16 +5,27 @@ package io.greenscreens.foreign;
 
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import io.greenscreens.foreign.annotations.Callback;
+import io.greenscreens.foreign.annotations.Result;
+import io.greenscreens.foreign.annotations.Sentinel;
 
 /**
  * Internal generic data converters
@@ -51,6 +62,16 @@ enum Helpers {
         return type.isArray() ? type.arrayType().componentType() : type;
     }
 
+    /**
+     * Convert primitive wrapper class to a primitive class, other types are returned as is
+     *
+     * @param type
+     * @return
+     */
+    static Class<?> unwrap(final Class<?> type) {
+        return MethodType.methodType(type).unwrap().returnType();
+    }
+
     /**
      * UTF16 support
      *
@@ -156,4 +177,102 @@ enum Helpers {
         return Stream.of(method.getParameters()).map(p -> p.isVarArgs() ? id.incrementAndGet() : -1).findFirst().orElse(-1);
     }
 
+    /**
+     * Create representative argument value used to exercise data converters; 
+     * null if type can not be sampled (callbacks, pointers)
+     *
+     * @param type
+     * @return
+     */
+    static Object sample(final Class<?> type) {
+        if (type.isArray()) return Array.newInstance(type.componentType(), 16);
+        if (String.class.equals(type)) return "warmup";
+        if (ByteBuffer.class.equals(type)) return ByteBuffer.allocate(16);
+        if (CharBuffer.class.equals(type)) return CharBuffer.allocate(16);
+        final Class<?> primitive = unwrap(type);
+        if (!primitive.isPrimitive() || void.class.equals(primitive)) return null;
+        try {
+            return MethodHandles.zero(primitive).invoke();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if method result is delivered asynchronously
+     *
+     * @param method
+     * @return
+     */
+    static boolean isAsync(final Method method) {
+        return CompletableFuture.class.equals(method.getReturnType());
+    }
+
+    /**
+     * Foreign function result type; for CompletableFuture&lt;X&gt; it is X
+     *
+     * @param method
+     * @return
+     */
+    static Class<?> returnType(final Method method) {
+        if (!isAsync(method)) return method.getReturnType();
+        if (method.getGenericReturnType() instanceof ParameterizedType type) return raw(type.getActualTypeArguments()[0]);
+        return Void.class;
+    }
+
+    private static Class<?> raw(final Type type) {
+        return switch (type) {
+            case Class<?> c -> c;
+            case ParameterizedType p -> raw(p.getRawType());
+            case GenericArrayType g -> raw(g.getGenericComponentType()).arrayType();
+            default -> Object.class;
+        };
+    }
+
+    /**
+     * Find index of a parameter receiving returned data; -1 if none
+     *
+     * @param method
+     * @return
+     */
+    static int result(final Method method) {
+        final Parameter[] params = method.getParameters();
+        int i = -1;
+        while (++i < params.length) {
+            if (params[i].isAnnotationPresent(Result.class)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Check if foreign function result matches sentinel indicating failed call
+     *
+     * @param sentinel
+     * @param result Raw foreign function result
+     * @return
+     */
+    static boolean isSentinel(final Sentinel sentinel, final Object result) {
+        return switch (sentinel) {
+            case NULL -> switch (result) {
+                case null -> true;
+                case MemorySegment m -> m.address() == 0;
+                default -> false;
+            };
+            case ZERO -> toLong(result) == 0;
+            case NONZERO -> toLong(result) != 0;
+            case NEGATIVE -> toLong(result) < 0;
+            default -> false;
+        };
+    }
+
+    private static long toLong(final Object value) {
+        return switch (value) {
+            case Number n -> n.longValue();
+            case Boolean b -> b.booleanValue() ? 1 : 0;
+            case Character c -> c.charValue();
+            case MemorySegment m -> m.address();
+            case null, default -> 0;
+        };
+    }
+
 }
@@ -3,28 +3,141 @@
 */
 package io.greenscreens.foreign;
 
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
 /**
- * Alternative version allowing to reload DDL ??!
+ * Closable library instance, allowing to reload the library without stopping callers.
  * @param <T>
  */
 public class Instance<T> implements AutoCloseable {
-    
+
+    private final static int WARMUP = Integer.getInteger("io.greenscreens.ffm.warmup", 10_000);
+
     final T proxy;
     final ExternalInvocationHandler handler;
+    final AutoCloseable resource;
     
     Instance(final T proxy, final ExternalInvocationHandler handler) {
+        this(proxy, handler, handler);
+    }
+
+    /**
+     * @param proxy
+     * @param handler null if library is not loaded in this process
+     * @param resource released on close
+     */
+    Instance(final T proxy, final ExternalInvocationHandler handler, final AutoCloseable resource) {
         super();
         this.proxy = proxy;
         this.handler = handler;
+        this.resource = resource;
     }
     
     public T get() {
         return proxy;
     }
 
+    /**
+     * Link all foreign functions in parallel and exercise argument and result
+     * converters, so JIT compiles them before the first real call.
+     * Number of iterations is set with system property "io.greenscreens.ffm.warmup".
+     * Fails if any of the library functions is not available.
+     *
+     * @return
+     * @throws UnavailableException with failures of all functions as suppressed exceptions
+     */
+    public Instance<T> warmup() {
+        if (Objects.nonNull(handler)) handler.warmup(WARMUP);
+        if (resource instanceof CopyPool pool) pool.warmup(WARMUP);
+        return this;
+    }
+
+    /**
+     * Create batch runner calling a single foreign function many times 
+     * within one scratch memory frame, see Batch
+     *
+     * @param method Interface method
+     * @return
+     */
+    public Batch batch(final Method method) {
+        return handler().batch(method);
+    }
+
+    /**
+     * Create batch runner for interface method found by name and parameter types
+     *
+     * @param name
+     * @param parameterTypes
+     * @return
+     */
+    public Batch batch(final String name, final Class<?>... parameterTypes) {
+        try {
+            return batch(handler().caller().getMethod(name, parameterTypes));
+        } catch (NoSuchMethodException e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    /**
+     * Concurrency limit and wait statistics of a foreign function annotated with @Concurrency
+     *
+     * @param method Interface method
+     * @return null if calls are not limited
+     */
+    public Permits permits(final Method method) {
+        return handler().plan(method).permits();
+    }
+
+    /**
+     * Load the library again from the given path, without stopping callers.
+     * New calls use the new library, while the previous one is closed 
+     * after its calls in progress return. Batches created before reload must be created again.
+     * If the new library fails to load, the previous one stays in use.
+     * Library file already loaded, including the same path rebuilt in place,
+     * is loaded from a private temporary copy, so the new code is always used.
+     *
+     * @param path Library path, extension is optional
+     * @return
+     */
+    public Instance<T> reload(final String path) {
+        handler().reload(path);
+        return this;
+    }
+
+    /**
+     * Number of library loads, 1 before the first reload
+     *
+     * @return
+     */
+    public int generation() {
+        return Objects.isNull(handler) ? 1 : handler.generation();
+    }
+
+    /**
+     * Executor used by methods returning CompletableFuture
+     *
+     * @param executor
+     */
+    void executor(final Executor executor) {
+        if (resource instanceof Isolation isolation) {
+            isolation.executor(executor);
+        } else if (resource instanceof CopyPool pool) {
+            pool.executor(executor);
+        } else {
+            handler().executor(executor);
+        }
+    }
+
+    private ExternalInvocationHandler handler() {
+        if (Objects.isNull(handler)) throw new UnavailableException("Not supported by isolated or multiple copy library instance");
+        return handler;
+    }
+
     @Override
     public void close() throws Exception {
-        handler.close();
+        resource.close();
     }
     
 }
@@ -0,0 +1,257 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+import io.greenscreens.foreign.annotations.External;
+
+/**
+ * Interface calls executed by the foreign library loaded in a separate worker JVM,
+ * so a crash within the library does not terminate the caller process.
+ *
+ * Arguments and results are exchanged through the shared memory ring (see SharedRing).
+ * If the worker terminates, calls in progress fail with UnavailableException
+ * and a new worker is started. A call not answered within the deadline
+ * (system property "io.greenscreens.ffm.isolation.deadline" in ms, 0 to disable)
+ * terminates the hung worker, which is then started again. Returned pointers are only handles 
+ * valid within the worker process. Callbacks and @Result MemorySegment destinations 
+ * are not supported.
+ */
+final class Isolation implements InvocationHandler, AutoCloseable {
+
+    private final static int SLOTS = Math.max(1, Integer.getInteger("io.greenscreens.ffm.isolation.slots", 2 * Runtime.getRuntime().availableProcessors()));
+    private final static int SLOT_SIZE = Math.max(4096, Integer.getInteger("io.greenscreens.ffm.isolation.slot", 1 << 20));
+    private final static long TIMEOUT = Long.getLong("io.greenscreens.ffm.isolation.timeout", 30_000);
+    private final static long DEADLINE = Math.max(0, Long.getLong("io.greenscreens.ffm.isolation.deadline", 300_000));
+
+    /**
+     * Running worker process and its shared ring
+     */
+    private static final class Worker {
+
+        final Process process;
+        final SharedRing ring;
+
+        Worker(final Process process, final SharedRing ring) {
+            super();
+            this.process = process;
+            this.ring = ring;
+        }
+    }
+
+    private final Class<?> caller;
+    private final Map<Method, Integer> index = new HashMap<>();
+    private final boolean[] async;
+
+    private volatile Worker worker;
+    private volatile Executor executor = Workers.pool();
+    private volatile boolean closed;
+
+    Isolation(final Class<?> caller) {
+        super();
+        this.caller = caller;
+        final Method[] methods = methods(caller);
+        this.async = new boolean[methods.length];
+        int i = -1;
+        while (++i < methods.length) {
+            final int result = Helpers.result(methods[i]);
+            if (result > -1 && MemorySegment.class.equals(methods[i].getParameterTypes()[result])) {
+                throw new UnavailableException("@Result MemorySegment destination is not supported by isolated library in method " + methods[i].getName());
+            }
+            index.put(methods[i], i);
+            async[i] = Helpers.isAsync(methods[i]);
+        }
+        this.worker = start();
+    }
+
+    /**
+     * Interface methods in the same order in both processes
+     *
+     * @param caller
+     * @return
+     */
+    static Method[] methods(final Class<?> caller) {
+        return Arrays.stream(caller.getMethods())
+                .filter(m -> Modifier.isAbstract(m.getModifiers()))
+                .sorted(Comparator.comparing(Method::toString))
+                .toArray(Method[]::new);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final Integer i = index.get(method);
+        if (Objects.isNull(i)) throw UnavailableException.create();
+        if (async[i]) return CompletableFuture.supplyAsync(() -> call(i, args), executor);
+        return call(i, args);
+    }
+
+    /**
+     * Executor used by methods returning CompletableFuture
+     *
+     * @param executor
+     */
+    void executor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Pass call to the worker and wait for the response
+     */
+    private Object call(final int method, final Object[] args) {
+        final Worker current = worker();
+        final SharedRing ring = current.ring;
+        final int slot = ring.claim(current.process);
+        try {
+            final ByteBuffer buffer = ring.buffer(slot);
+            final int count = Objects.isNull(args) ? 0 : args.length;
+            buffer.putInt(count);
+            int i = -1;
+            while (++i < count) {
+                IsolationCodec.write(buffer, args[i]);
+            }
+            ring.request(slot, method);
+            if (!ring.await(slot, current.process, DEADLINE * 1_000_000)) {
+                current.process.destroyForcibly();
+                throw new UnavailableException("Isolated call not completed within " + DEADLINE + "ms, worker restarted");
+            }
+            return response(ring.buffer(slot), args);
+        } catch (BufferOverflowException e) {
+            throw new UnavailableException("Arguments exceed isolated call slot size, see io.greenscreens.ffm.isolation.slot", e);
+        } finally {
+            ring.free(slot);
+        }
+    }
+
+    /**
+     * Read call result and copy output arrays back to the caller arguments
+     */
+    private static Object response(final ByteBuffer buffer, final Object[] args) {
+        if (buffer.get() == IsolationCodec.ERROR) throw IsolationCodec.error(buffer);
+        final Object result = IsolationCodec.read(buffer);
+        int outputs = buffer.getInt();
+        while (outputs-- > 0) {
+            final int i = buffer.getInt();
+            IsolationCodec.copy(IsolationCodec.read(buffer), args[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Current worker, started again if terminated
+     */
+    private Worker worker() {
+        final Worker current = worker;
+        if (current.process.isAlive()) return current;
+        return restart(current.process);
+    }
+
+    private synchronized Worker restart(final Process terminated) {
+        if (closed) throw new UnavailableException("Isolated library " + caller.getName() + " is closed");
+        if (worker.process != terminated) return worker;
+        Metrics.restarts.increment();
+        worker = start();
+        return worker;
+    }
+
+    /**
+     * Start worker JVM and wait until library is linked
+     */
+    private Worker start() {
+        final SharedRing ring = SharedRing.create(SLOTS, SLOT_SIZE);
+        try {
+            final Process process = new ProcessBuilder(command(ring)).inheritIO().start();
+            final long deadline = System.nanoTime() + TIMEOUT * 1_000_000;
+            while (!ring.isReady()) {
+                if (!process.isAlive()) throw new UnavailableException("Isolated worker for " + caller.getName() + " failed with exit code " + process.exitValue());
+                if (System.nanoTime() > deadline) {
+                    process.destroyForcibly();
+                    throw new UnavailableException("Isolated worker for " + caller.getName() + " not started within " + TIMEOUT + "ms");
+                }
+                LockSupport.parkNanos(this, 1_000_000);
+            }
+            process.onExit().thenAccept(this::terminated);
+            return new Worker(process, ring);
+        } catch (IOException e) {
+            throw new UnavailableException(e);
+        } finally {
+            ring.unlink();
+        }
+    }
+
+    /**
+     * Start new worker ahead of the next call
+     */
+    private void terminated(final Process process) {
+        if (closed) return;
+        try {
+            restart(process);
+        } catch (UnavailableException e) {
+            // next call will retry
+        }
+    }
+
+    /**
+     * Worker JVM command line, using the same class or module path
+     * and library related system properties
+     */
+    private List<String> command(final SharedRing ring) {
+        final Module module = Isolation.class.getModule();
+        final String property = caller.getAnnotation(External.class).property();
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("--enable-native-access=" + (module.isNamed() ? module.getName() : "ALL-UNNAMED"));
+        System.getProperties().stringPropertyNames().stream()
+            .filter(name -> name.startsWith("io.greenscreens.") || name.equals(property))
+            .forEach(name -> command.add("-D" + name + "=" + System.getProperty(name)));
+        final String classPath = System.getProperty("java.class.path", "");
+        if (classPath.length() > 0) {
+            command.add("-cp");
+            command.add(classPath);
+        }
+        final String modulePath = System.getProperty("jdk.module.path");
+        if (module.isNamed() && Objects.nonNull(modulePath)) {
+            command.add("-p");
+            command.add(modulePath);
+            command.add("--add-modules");
+            command.add("ALL-MODULE-PATH");
+            command.add("-m");
+            command.add(module.getName() + "/" + IsolationWorker.class.getName());
+        } else {
+            command.add(IsolationWorker.class.getName());
+        }
+        command.add(caller.getName());
+        command.add(ring.path().toString());
+        command.add(String.valueOf(SLOTS));
+        command.add(String.valueOf(SLOT_SIZE));
+        return command;
+    }
+
+    /**
+     * Stop worker process, calls in progress fail
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        worker.process.destroy();
+    }
+}
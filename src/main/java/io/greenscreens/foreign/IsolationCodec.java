@@ -0,0 +1,241 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Binary encoding of foreign call arguments and results
+ * exchanged with the isolated worker process through shared memory.
+ * Pointers (MemorySegment) are passed as addresses, valid only within the worker process.
+ */
+enum IsolationCodec {
+    ;
+
+    final static byte OK = 0;
+    final static byte ERROR = 1;
+
+    /**
+     * Maximum encoded error message length in bytes
+     */
+    private final static int MESSAGE = 2048;
+
+    private final static byte NULL = 0;
+    private final static byte BOOLEAN = 1;
+    private final static byte BYTE = 2;
+    private final static byte CHAR = 3;
+    private final static byte SHORT = 4;
+    private final static byte INT = 5;
+    private final static byte LONG = 6;
+    private final static byte FLOAT = 7;
+    private final static byte DOUBLE = 8;
+    private final static byte STRING = 9;
+    private final static byte BYTES = 10;
+    private final static byte CHARS = 11;
+    private final static byte SHORTS = 12;
+    private final static byte INTS = 13;
+    private final static byte LONGS = 14;
+    private final static byte FLOATS = 15;
+    private final static byte DOUBLES = 16;
+    private final static byte BOOLEANS = 17;
+    private final static byte POINTER = 18;
+    private final static byte BYTE_BUFFER = 19;
+    private final static byte CHAR_BUFFER = 20;
+
+    /**
+     * Write a single value
+     *
+     * @param buffer
+     * @param value
+     */
+    static void write(final ByteBuffer buffer, final Object value) {
+        switch (value) {
+            case null -> buffer.put(NULL);
+            case Boolean v -> buffer.put(BOOLEAN).put((byte) (v ? 1 : 0));
+            case Byte v -> buffer.put(BYTE).put(v);
+            case Character v -> buffer.put(CHAR).putChar(v);
+            case Short v -> buffer.put(SHORT).putShort(v);
+            case Integer v -> buffer.put(INT).putInt(v);
+            case Long v -> buffer.put(LONG).putLong(v);
+            case Float v -> buffer.put(FLOAT).putFloat(v);
+            case Double v -> buffer.put(DOUBLE).putDouble(v);
+            case String v -> bytes(buffer.put(STRING), v.getBytes(StandardCharsets.UTF_8));
+            case byte[] v -> bytes(buffer.put(BYTES), v);
+            case char[] v -> buffer.put(CHARS).putInt(v.length).asCharBuffer().put(v).position();
+            case short[] v -> buffer.put(SHORTS).putInt(v.length).asShortBuffer().put(v).position();
+            case int[] v -> buffer.put(INTS).putInt(v.length).asIntBuffer().put(v).position();
+            case long[] v -> buffer.put(LONGS).putInt(v.length).asLongBuffer().put(v).position();
+            case float[] v -> buffer.put(FLOATS).putInt(v.length).asFloatBuffer().put(v).position();
+            case double[] v -> buffer.put(DOUBLES).putInt(v.length).asDoubleBuffer().put(v).position();
+            case boolean[] v -> bytes(buffer.put(BOOLEANS), Helpers.toBytes(v));
+            case MemorySegment v -> buffer.put(POINTER).putLong(v.address());
+            case ByteBuffer v -> buffer.put(BYTE_BUFFER).putInt(v.remaining()).put(v.duplicate());
+            case CharBuffer v -> buffer.put(CHAR_BUFFER).putInt(v.remaining()).asCharBuffer().put(v.duplicate()).position();
+            default -> throw new UnavailableException("Type " + value.getClass().getName() + " can not be passed to isolated library");
+        }
+        skipViews(buffer, value);
+    }
+
+    /**
+     * Read a single value
+     *
+     * @param buffer
+     * @return
+     */
+    static Object read(final ByteBuffer buffer) {
+        final byte tag = buffer.get();
+        return switch (tag) {
+            case NULL -> null;
+            case BOOLEAN -> buffer.get() != 0;
+            case BYTE -> buffer.get();
+            case CHAR -> buffer.getChar();
+            case SHORT -> buffer.getShort();
+            case INT -> buffer.getInt();
+            case LONG -> buffer.getLong();
+            case FLOAT -> buffer.getFloat();
+            case DOUBLE -> buffer.getDouble();
+            case STRING -> new String(bytes(buffer), StandardCharsets.UTF_8);
+            case BYTES -> bytes(buffer);
+            case CHARS -> {
+                final char[] v = new char[buffer.getInt()];
+                buffer.asCharBuffer().get(v);
+                yield skip(buffer, v.length * 2L, v);
+            }
+            case SHORTS -> {
+                final short[] v = new short[buffer.getInt()];
+                buffer.asShortBuffer().get(v);
+                yield skip(buffer, v.length * 2L, v);
+            }
+            case INTS -> {
+                final int[] v = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(v);
+                yield skip(buffer, v.length * 4L, v);
+            }
+            case LONGS -> {
+                final long[] v = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(v);
+                yield skip(buffer, v.length * 8L, v);
+            }
+            case FLOATS -> {
+                final float[] v = new float[buffer.getInt()];
+                buffer.asFloatBuffer().get(v);
+                yield skip(buffer, v.length * 4L, v);
+            }
+            case DOUBLES -> {
+                final double[] v = new double[buffer.getInt()];
+                buffer.asDoubleBuffer().get(v);
+                yield skip(buffer, v.length * 8L, v);
+            }
+            case BOOLEANS -> Helpers.toBoolean(bytes(buffer));
+            case POINTER -> MemorySegment.ofAddress(buffer.getLong());
+            case BYTE_BUFFER -> ByteBuffer.wrap(bytes(buffer));
+            case CHAR_BUFFER -> {
+                final char[] v = new char[buffer.getInt()];
+                buffer.asCharBuffer().get(v);
+                yield skip(buffer, v.length * 2L, CharBuffer.wrap(v));
+            }
+            default -> throw new UnavailableException("Invalid isolated call data tag " + tag);
+        };
+    }
+
+    /**
+     * Copy array or buffer content returned by the worker into the caller argument.
+     * Buffer data is written at the target position, which is moved by copied length.
+     *
+     * @param source
+     * @param target
+     */
+    static void copy(final Object source, final Object target) {
+        if (Objects.isNull(source) || Objects.isNull(target)) return;
+        if (source instanceof ByteBuffer data && target instanceof ByteBuffer buffer) {
+            buffer.put(data.limit(Math.min(data.remaining(), buffer.remaining())));
+            return;
+        }
+        if (source.getClass() != target.getClass() || !target.getClass().isArray()) return;
+        System.arraycopy(source, 0, target, 0, Math.min(java.lang.reflect.Array.getLength(source), java.lang.reflect.Array.getLength(target)));
+    }
+
+    /**
+     * Write failed call status, replacing any partially written result.
+     * Message is truncated by encoded length to fit into the slot.
+     *
+     * @param buffer
+     * @param error
+     */
+    static void error(final ByteBuffer buffer, final Throwable error) {
+        final String function = error instanceof ForeignException e ? e.getFunction() : null;
+        final int code = error instanceof ForeignException e ? e.getCode() : 0;
+        final byte[] message = String.valueOf(error.getMessage()).getBytes(StandardCharsets.UTF_8);
+        buffer.clear();
+        buffer.put(ERROR);
+        write(buffer, error.getClass().getName());
+        final int reserved = 5 + (Objects.isNull(function) ? 1 : 5 + function.getBytes(StandardCharsets.UTF_8).length) + 4;
+        bytes(buffer.put(STRING), truncate(message, Math.min(MESSAGE, buffer.remaining() - reserved)));
+        write(buffer, function);
+        buffer.putInt(code);
+    }
+
+    /**
+     * Cut UTF-8 data to the limit, without splitting a multi byte character
+     */
+    private static byte[] truncate(final byte[] data, final int limit) {
+        if (data.length <= limit) return data;
+        int length = Math.max(0, limit);
+        while (length > 0 && (data[length] & 0xC0) == 0x80) length--;
+        return Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Read failed call status written by the worker
+     *
+     * @param buffer
+     * @return exception to be thrown in the caller process
+     */
+    static RuntimeException error(final ByteBuffer buffer) {
+        final String type = (String) read(buffer);
+        final String message = (String) read(buffer);
+        final String function = (String) read(buffer);
+        final int code = buffer.getInt();
+        if (ForeignException.class.getName().equals(type)) return new ForeignException(function, code, message);
+        if (UnavailableException.class.getName().equals(type)) return new UnavailableException(message);
+        return new UnavailableException(type + ": " + message);
+    }
+
+    private static void bytes(final ByteBuffer buffer, final byte[] data) {
+        buffer.putInt(data.length).put(data);
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        final byte[] data = new byte[buffer.getInt()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static <T> T skip(final ByteBuffer buffer, final long length, final T value) {
+        buffer.position(buffer.position() + (int) length);
+        return value;
+    }
+
+    /**
+     * Typed views do not move the source buffer position
+     */
+    private static void skipViews(final ByteBuffer buffer, final Object value) {
+        final long length = switch (value) {
+            case char[] v -> v.length * 2L;
+            case short[] v -> v.length * 2L;
+            case int[] v -> v.length * 4L;
+            case long[] v -> v.length * 8L;
+            case float[] v -> v.length * 4L;
+            case double[] v -> v.length * 8L;
+            case CharBuffer v -> v.remaining() * 2L;
+            case null, default -> 0;
+        };
+        if (length > 0) buffer.position(buffer.position() + (int) length);
+    }
+}
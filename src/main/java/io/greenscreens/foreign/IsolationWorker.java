@@ -0,0 +1,143 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker JVM entry point for isolated libraries, see Isolation.
+ * Loads the library, then executes calls found in the shared ring.
+ * Worker exits when the parent process terminates.
+ *
+ * A single scanner thread polls the ring. The scanner taking a call starts 
+ * the next scanner and executes the call itself (leader / followers), 
+ * so a call is not handed over to another thread before it runs.
+ *
+ * Arguments: interface class name, ring file, number of slots, slot size
+ */
+final class IsolationWorker {
+
+    private final static int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1024 : 0;
+    private final static long PARK_MAX = 50_000;
+
+    private IsolationWorker() {
+        super();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Class<?> caller = Class.forName(args[0]);
+        final SharedRing ring = SharedRing.open(Path.of(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        ProcessHandle.current().parent().ifPresent(parent -> parent.onExit().thenRun(() -> Runtime.getRuntime().halt(0)));
+
+        final ExternalInvocationHandler handler = new ExternalInvocationHandler(caller);
+        final Method[] methods = Isolation.methods(caller);
+        final CallPlan[] plans = new CallPlan[methods.length];
+        int i = -1;
+        while (++i < methods.length) {
+            plans[i] = plan(handler, methods[i]);
+        }
+
+        final ExecutorService pool = Executors.newCachedThreadPool(Thread.ofPlatform().name("ffm-isolated-", 0).factory());
+        ring.ready();
+        pool.execute(() -> scan(ring, plans, pool));
+    }
+
+    /**
+     * Scan slots for a requested call; spin, then park with growing delay when idle.
+     * Taken call is executed inline, after the next scanner is started.
+     */
+    private static void scan(final SharedRing ring, final CallPlan[] plans, final ExecutorService pool) {
+        final int slots = ring.slots();
+        int idle = 0;
+        long park = 1_000;
+        int i = -1;
+        while (true) {
+            if (++i == slots) {
+                i = 0;
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(park);
+                    park = Math.min(park << 1, PARK_MAX);
+                }
+            }
+            if (!ring.take(i)) continue;
+            pool.execute(() -> scan(ring, plans, pool));
+            execute(ring, i, plans);
+            return;
+        }
+    }
+
+    /**
+     * Execute single call and write the result, 
+     * including arrays filled by the foreign function, into the slot
+     */
+    private static void execute(final SharedRing ring, final int slot, final CallPlan[] plans) {
+        final ByteBuffer buffer = ring.buffer(slot);
+        try {
+            final int method = ring.method(slot);
+            final CallPlan plan = method < plans.length ? plans[method] : null;
+            if (Objects.isNull(plan)) throw UnavailableException.create();
+            final Object[] args = new Object[buffer.getInt()];
+            int i = -1;
+            while (++i < args.length) {
+                args[i] = IsolationCodec.read(buffer);
+            }
+            Object result = plan.invoke(args);
+            if (result instanceof CompletableFuture<?> future) result = future.join();
+            buffer.clear();
+            buffer.put(IsolationCodec.OK);
+            IsolationCodec.write(buffer, result);
+            write(buffer, plan.signature, args);
+        } catch (BufferOverflowException e) {
+            IsolationCodec.error(buffer, new UnavailableException("Result exceeds isolated call slot size, see io.greenscreens.ffm.isolation.slot"));
+        } catch (CompletionException e) {
+            IsolationCodec.error(buffer, Objects.isNull(e.getCause()) ? e : e.getCause());
+        } catch (Throwable e) {
+            IsolationCodec.error(buffer, e);
+        } finally {
+            ring.respond(slot);
+        }
+    }
+
+    /**
+     * Write back @Out, @InOut and @Result arrays; 
+     * for @Result buffer, only data written by the call is sent
+     */
+    private static void write(final ByteBuffer buffer, final Signature signature, final Object[] args) {
+        int count = 0;
+        int i = -1;
+        while (++i < args.length) {
+            if (isOutput(signature, i)) count++;
+        }
+        buffer.putInt(count);
+        i = -1;
+        while (++i < args.length) {
+            if (!isOutput(signature, i)) continue;
+            buffer.putInt(i);
+            IsolationCodec.write(buffer, args[i] instanceof ByteBuffer data ? data.flip() : args[i]);
+        }
+    }
+
+    private static boolean isOutput(final Signature signature, final int index) {
+        return signature.outputs[index] != 0 || signature.result == index;
+    }
+
+    private static CallPlan plan(final ExternalInvocationHandler handler, final Method method) {
+        try {
+            return handler.plan(method);
+        } catch (UnavailableException e) {
+            return null;
+        }
+    }
+}
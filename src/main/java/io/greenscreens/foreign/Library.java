@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loaded native library shared by all interfaces and instances using the same file,
+ * see LibraryRegistry. Downcall handles are linked once per
+ * function name, descriptor and linker options.
+ */
+final class Library {
+
+    final String path;
+
+    private final Arena arena;
+    private final SymbolLookup lookup;
+    private final Map<List<Object>, MethodHandle> downcalls = new ConcurrentHashMap<>();
+
+    int users;
+
+    Library(final String path) {
+        super();
+        this.path = path;
+        this.arena = Arena.ofShared();
+        try {
+            this.lookup = SymbolLookup.libraryLookup(path, arena);
+        } catch (RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Downcall handle of the foreign function, linked on first request
+     *
+     * @param signature
+     * @return
+     */
+    MethodHandle downcall(final Signature signature) {
+        final List<Object> key = List.of(signature.name, signature.descriptor, List.of(ForeignGenerator.options(signature)));
+        return downcalls.computeIfAbsent(key, k -> ForeignGenerator.build(lookup, signature));
+    }
+
+    /**
+     * Number of linked downcall handles
+     *
+     * @return
+     */
+    int size() {
+        return downcalls.size();
+    }
+
+    /**
+     * Unload library, called when the last user is released
+     */
+    void close() {
+        downcalls.clear();
+        arena.close();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Native libraries embedded as class path resources, see @External(resource).
+ * Library is extracted once into the cache directory named by its content hash
+ * and reused by later runs and concurrent JVMs. Extraction is guarded by a file lock,
+ * cached file is verified by hashing its memory mapped content.
+ * Embedded library is hashed and extracted as a stream, never held in memory.
+ *
+ * If resource "&lt;library&gt;.sha256" exists, it provides expected hash,
+ * so a verified cached library is used without reading the embedded one.
+ * Cache directory is set with system property "io.greenscreens.ffm.cache", 
+ * it must allow executable mappings. Default is a per-user directory in the temporary directory.
+ * On POSIX systems, directories and files are created with owner only permissions,
+ * and cache not owned by the current user or writable by others is rejected.
+ */
+enum LibraryCache {
+    ;
+
+    private final static String USER = System.getProperty("user.name");
+    private final static Path CACHE = Path.of(System.getProperty("io.greenscreens.ffm.cache", 
+            Path.of(System.getProperty("java.io.tmpdir"), "io.greenscreens.ffm-" + USER.replaceAll("[^A-Za-z0-9._-]", "_")).toString()));
+    private final static boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    private final static Set<PosixFilePermission> PRIVATE = PosixFilePermissions.fromString("rwx------");
+    private final static long CHUNK = 1 << 30;
+
+    /**
+     * Path of the extracted library
+     *
+     * @param caller Class used to find the resource
+     * @param resource Resource name, with extension
+     * @return
+     */
+    static Path extract(final Class<?> caller, final String resource) {
+        final String name = Path.of(resource).getFileName().toString();
+        final String expected = expected(caller, resource);
+        final String hash = Objects.nonNull(expected) ? expected : hash(caller, resource);
+        final Path target = directory(CACHE).resolve(hash).resolve(name);
+        if (verify(target, hash)) return target;
+        synchronized (LibraryCache.class) {
+            return write(caller, resource, target, hash);
+        }
+    }
+
+    /**
+     * Extract library under the file lock shared with other JVMs,
+     * content is hashed while copied and must match expected hash
+     */
+    private static Path write(final Class<?> caller, final String resource, final Path target, final String hash) {
+        try {
+            final Path dir = directory(target.getParent());
+            try (FileChannel channel = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                if (verify(target, hash)) return target;
+                final Path temp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp", attributes());
+                try {
+                    final MessageDigest digest = digest();
+                    try (InputStream in = new DigestInputStream(open(caller, resource), digest);
+                         OutputStream out = Files.newOutputStream(temp)) {
+                        in.transferTo(out);
+                    }
+                    if (!hash.equals(hex(digest.digest()))) {
+                        throw new UnavailableException("Library resource " + resource + " does not match its hash");
+                    }
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            return target;
+        } catch (IOException e) {
+            throw new UnavailableException("Library can not be extracted to " + target, e);
+        }
+    }
+
+    /**
+     * Hash memory mapped file content and compare with expected
+     */
+    private static boolean verify(final Path file, final String hash) {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) return false;
+        try {
+            if (!isPrivate(file)) return false;
+        } catch (IOException e) {
+            return false;
+        }
+        try (Arena arena = Arena.ofConfined(); 
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MessageDigest digest = digest();
+            final long size = channel.size();
+            if (size > 0) {
+                final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+                long offset = 0;
+                while (offset < size) {
+                    final long length = Math.min(CHUNK, size - offset);
+                    digest.update(segment.asSlice(offset, length).asByteBuffer());
+                    offset += length;
+                }
+            }
+            return hash.equals(hex(digest.digest()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Expected hash from the "&lt;resource&gt;.sha256" resource, if available
+     */
+    private static String expected(final Class<?> caller, final String resource) {
+        try (InputStream in = caller.getResourceAsStream(resource + ".sha256")) {
+            if (Objects.isNull(in)) return null;
+            final String text = new String(in.readAllBytes(), StandardCharsets.US_ASCII).trim();
+            final int end = text.indexOf(' ');
+            return (end < 0 ? text : text.substring(0, end)).toLowerCase();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hash of the embedded library, read as a stream
+     */
+    private static String hash(final Class<?> caller, final String resource) {
+        final MessageDigest digest = digest();
+        try (InputStream in = new DigestInputStream(open(caller, resource), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UnavailableException(e);
+        }
+        return hex(digest.digest());
+    }
+
+    private static InputStream open(final Class<?> caller, final String resource) {
+        final InputStream in = caller.getResourceAsStream(resource);
+        if (Objects.isNull(in)) throw new UnavailableException("Library resource " + resource + " not found");
+        return in;
+    }
+
+    /**
+     * Create directory with owner only permissions, 
+     * existing one must be a private directory of the current user
+     */
+    private static Path directory(final Path path) {
+        final Path dir = path.toAbsolutePath();
+        try {
+            if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+                Files.createDirectories(dir.getParent());
+                try {
+                    Files.createDirectory(dir, attributes());
+                } catch (FileAlreadyExistsException e) {
+                    // created by another process
+                }
+            }
+            if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS) && isPrivate(dir)) return dir;
+        } catch (IOException e) {
+            throw new UnavailableException("Library cache can not be created in " + dir, e);
+        }
+        throw new UnavailableException("Library cache " + dir + " is not a private directory of the current user");
+    }
+
+    /**
+     * Owned by the current user and not writable by others;
+     * ownership is not checked on systems without POSIX permissions
+     */
+    private static boolean isPrivate(final Path path) throws IOException {
+        if (!POSIX) return true;
+        final PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        final Set<PosixFilePermission> permissions = attributes.permissions();
+        return attributes.owner().getName().equals(USER)
+                && !permissions.contains(PosixFilePermission.GROUP_WRITE)
+                && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+    }
+
+    private static FileAttribute<?>[] attributes() {
+        return POSIX ? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PRIVATE) } : new FileAttribute<?>[0];
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    private static String hex(final byte[] data) {
+        return HexFormat.of().formatHex(data);
+    }
+}
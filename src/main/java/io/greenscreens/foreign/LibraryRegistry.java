@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Process wide registry of loaded native libraries, keyed by the resolved library path.
+ * Libraries are reference counted by the library generations using them,
+ * and unloaded when the last one is closed. 
+ * A single shutdown hook closes all open interface instances.
+ */
+enum LibraryRegistry {
+    ;
+
+    private final static Object lock = new Object();
+    private final static Map<String, Library> libraries = new HashMap<>();
+    private final static Set<AutoCloseable> instances = new LinkedHashSet<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(LibraryRegistry::shutdown, "ffm-shutdown"));
+    }
+
+    /**
+     * Load library or reuse already loaded one
+     *
+     * @param path
+     * @return
+     */
+    static Library acquire(final String path) {
+        final String key = resolve(path);
+        synchronized (lock) {
+            Library library = libraries.get(key);
+            if (Objects.isNull(library)) {
+                library = new Library(key);
+                libraries.put(key, library);
+            }
+            library.users++;
+            return library;
+        }
+    }
+
+    /**
+     * If true, library file is currently loaded through the registry
+     *
+     * @param path
+     * @return
+     */
+    static boolean isLoaded(final String path) {
+        final String key = resolve(path);
+        synchronized (lock) {
+            return libraries.containsKey(key);
+        }
+    }
+
+    /**
+     * Release library, unloaded when not used anymore
+     *
+     * @param library
+     */
+    static void release(final Library library) {
+        synchronized (lock) {
+            if (--library.users > 0) return;
+            libraries.remove(library.path);
+        }
+        library.close();
+    }
+
+    /**
+     * Close instance on JVM exit
+     *
+     * @param instance
+     */
+    static void register(final AutoCloseable instance) {
+        synchronized (lock) {
+            instances.add(instance);
+        }
+    }
+
+    /**
+     * Instance closed by the application
+     *
+     * @param instance
+     */
+    static void unregister(final AutoCloseable instance) {
+        synchronized (lock) {
+            instances.remove(instance);
+        }
+    }
+
+    /**
+     * Number of loaded libraries
+     *
+     * @return
+     */
+    static int libraries() {
+        synchronized (lock) {
+            return libraries.size();
+        }
+    }
+
+    /**
+     * Number of linked downcall handles of all loaded libraries
+     *
+     * @return
+     */
+    static int downcalls() {
+        synchronized (lock) {
+            return libraries.values().stream().mapToInt(Library::size).sum();
+        }
+    }
+
+    /**
+     * Real path of the library file; 
+     * names resolved by the system loader are used as given
+     */
+    private static String resolve(final String path) {
+        final Path file = Path.of(path);
+        if (!Files.exists(file)) return path;
+        try {
+            return file.toRealPath().toString();
+        } catch (IOException e) {
+            return file.toAbsolutePath().normalize().toString();
+        }
+    }
+
+    private static void shutdown() {
+        final List<AutoCloseable> list;
+        synchronized (lock) {
+            list = new ArrayList<>(instances);
+        }
+        for (final AutoCloseable instance : list) {
+            try {
+                instance.close();
+            } catch (Exception e) {
+                // JVM exits
+            }
+        }
+    }
+}
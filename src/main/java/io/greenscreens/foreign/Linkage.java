@@ -0,0 +1,91 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+
+/**
+ * Link between compile time generated binding and the foreign library.
+ *
+ * Binding class named {@code <Interface>$FFM} is generated by the
+ * io.greenscreens.foreign.processor.ExternalProcessor in the interface package.
+ * It receives Linkage in its constructor and links precomputed signatures
+ * into exact typed MethodHandles.
+ */
+public final class Linkage {
+
+    final static String SUFFIX = "$FFM";
+
+    private final static Lookup lookup = MethodHandles.lookup();
+
+    private final ExternalInvocationHandler handler;
+
+    Linkage(final ExternalInvocationHandler handler) {
+        super();
+        this.handler = handler;
+    }
+
+    /**
+     * Link foreign functions described by the generated binding.
+     *
+     * @param signatures
+     * @return Exact typed MethodHandles in the same order as signatures
+     */
+    public MethodHandle[] link(final Signature... signatures) {
+        return handler.link(signatures);
+    }
+
+    /**
+     * Find compile time generated binding for interface
+     *
+     * @param caller
+     * @return null if binding is not generated or not accessible
+     */
+    static Class<?> find(final Class<?> caller) {
+        if (!ClassGenerator.isSupported(caller)) return null;
+        try {
+            final Class<?> binding = Class.forName(caller.getName() + SUFFIX, false, caller.getClassLoader());
+            return caller.isAssignableFrom(binding) ? binding : null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Instantiate compile time generated binding
+     *
+     * @param <T>
+     * @param caller
+     * @param binding
+     * @return
+     */
+    static <T> Instance<T> bind(final Class<T> caller, final Class<?> binding) {
+        ClassGenerator.readable(caller);
+        final ExternalInvocationHandler handler = new ExternalInvocationHandler(caller, true);
+        try {
+            final MethodHandle constructor = lookup.findConstructor(binding, MethodType.methodType(void.class, Linkage.class));
+            final T t = caller.cast(constructor.invoke(new Linkage(handler)));
+            return new Instance<T>(t, handler);
+        } catch (Throwable e) {
+            handler.close();
+            throw e instanceof UnavailableException ? (UnavailableException) e : new UnavailableException(caller.getName(), e);
+        }
+    }
+
+    /**
+     * Instantiate compile time generated binding if available
+     *
+     * @param <T>
+     * @param caller
+     * @return null if binding is not generated
+     */
+    static <T> Instance<T> bind(final Class<T> caller) {
+        final Class<?> binding = find(caller);
+        return Objects.isNull(binding) ? null : bind(caller, binding);
+    }
+}
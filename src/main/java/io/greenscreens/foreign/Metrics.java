@@ -0,0 +1,85 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Foreign call engine counters
+ */
+public enum Metrics {
+    ;
+
+    final static LongAdder offloaded = new LongAdder();
+    final static LongAdder restarts = new LongAdder();
+    final static Map<String, String> variants = new ConcurrentHashMap<>();
+
+    /**
+     * Number of @Blocking calls from virtual threads executed on platform workers,
+     * each one is a carrier thread pinning avoided
+     *
+     * @return
+     */
+    public static long offloaded() {
+        return offloaded.sum();
+    }
+
+    /**
+     * Number of isolated library worker processes started again after termination
+     *
+     * @return
+     */
+    public static long restarts() {
+        return restarts.sum();
+    }
+
+    /**
+     * Number of native libraries loaded, shared by all interfaces using the same library file
+     *
+     * @return
+     */
+    public static int libraries() {
+        return LibraryRegistry.libraries();
+    }
+
+    /**
+     * Number of linked downcall handles, shared by all interfaces 
+     * using the same function with the same descriptor and options
+     *
+     * @return
+     */
+    public static int downcalls() {
+        return LibraryRegistry.downcalls();
+    }
+
+    /**
+     * Library variants selected by CPU features, see @Variant
+     *
+     * @return Interface name to the loaded library
+     */
+    public static Map<String, String> variants() {
+        return Map.copyOf(variants);
+    }
+
+    /**
+     * CPU features used to select library variants,
+     * empty if not detected (only Linux is supported) and not set with system property
+     *
+     * @return
+     */
+    public static Set<String> features() {
+        return CpuFeatures.features();
+    }
+
+    /**
+     * Reset all counters
+     */
+    public static void reset() {
+        offloaded.reset();
+        restarts.reset();
+    }
+}
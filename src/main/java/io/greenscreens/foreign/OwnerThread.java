@@ -0,0 +1,204 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single platform thread executing all foreign calls of one library instance,
+ * used for libraries which must be called from the thread that initialised them.
+ *
+ * Calls are handed over through a lock-free intrusive queue (many producers, single consumer);
+ * a producer links its call with a single atomic swap of the tail, 
+ * the owner thread takes calls from the head without atomic operations.
+ * Both owner and callers spin briefly before parking, so back to back calls
+ * are passed with low latency without keeping idle threads busy.
+ * Calls from the owner thread itself (callbacks) are executed inline.
+ */
+final class OwnerThread implements AutoCloseable {
+
+    /**
+     * Number of spins before parking; spinning is disabled on a single processor,
+     * where it only delays the thread which should make progress
+     */
+    private final static int SPINS = Integer.getInteger("io.greenscreens.ffm.affinity.spins", Runtime.getRuntime().availableProcessors() > 1 ? 512 : 0);
+
+    /**
+     * Work executed on the owner thread
+     */
+    @FunctionalInterface
+    interface Task {
+        Object run() throws Throwable;
+    }
+
+    private final AtomicReference<Call> tail;
+    private final Thread thread;
+    private Call head;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    OwnerThread(final String name) {
+        super();
+        this.head = new Call(null, null);
+        this.tail = new AtomicReference<>(head);
+        this.thread = Thread.ofPlatform().daemon().name(name).start(this::loop);
+    }
+
+    /**
+     * Check if current thread is the owner thread
+     *
+     * @return
+     */
+    boolean isOwner() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Execute task on the owner thread and wait for the result
+     *
+     * @param task
+     * @return
+     * @throws Throwable
+     */
+    Object call(final Task task) throws Throwable {
+        if (isOwner()) return task.run();
+        if (closed) throw new UnavailableException("Owner thread " + thread.getName() + " is closed");
+        final Call call = new Call(task, Thread.currentThread());
+        offer(call);
+        if (closed && call.take()) throw new UnavailableException("Owner thread " + thread.getName() + " is closed");
+        if (parked) LockSupport.unpark(thread);
+        return call.await();
+    }
+
+    /**
+     * Stop owner thread, pending calls fail
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Link call at the queue tail, called by any thread
+     */
+    private void offer(final Call call) {
+        tail.getAndSet(call).next = call;
+    }
+
+    /**
+     * Take call from the queue head, called by the owner thread only.
+     * Taken call becomes the new head.
+     *
+     * @return null if queue is empty or producer did not finish linking
+     */
+    private Call poll() {
+        final Call next = head.next;
+        if (Objects.nonNull(next)) head = next;
+        return next;
+    }
+
+    private void loop() {
+        int spins = 0;
+        while (!closed) {
+            final Call call = poll();
+            if (Objects.nonNull(call)) {
+                if (call.take()) call.run();
+                spins = 0;
+            } else if (++spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                parked = true;
+                if (Objects.isNull(head.next) && !closed) LockSupport.park(this);
+                parked = false;
+                spins = 0;
+            }
+        }
+        Call call = null;
+        while (Objects.nonNull(call = poll())) {
+            if (call.take()) call.fail(new UnavailableException("Owner thread " + thread.getName() + " is closed"));
+        }
+    }
+
+    /**
+     * Single handed over call with the result slot, also a queue node.
+     * Call is taken once, either by the owner thread to run or fail it,
+     * or by the caller to cancel it when owner thread is closed.
+     */
+    private static final class Call {
+
+        private final static VarHandle TAKEN;
+
+        static {
+            try {
+                TAKEN = MethodHandles.lookup().findVarHandle(Call.class, "taken", boolean.class);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Task task;
+        private final Thread caller;
+        private volatile Call next;
+        private volatile boolean taken;
+        private Object result;
+        private Throwable error;
+        private volatile boolean done;
+
+        Call(final Task task, final Thread caller) {
+            super();
+            this.task = task;
+            this.caller = caller;
+        }
+
+        /**
+         * Claim the call
+         *
+         * @return false if call is already taken
+         */
+        boolean take() {
+            return TAKEN.compareAndSet(this, false, true);
+        }
+
+        void run() {
+            try {
+                result = task.run();
+            } catch (Throwable e) {
+                error = e;
+            }
+            done = true;
+            LockSupport.unpark(caller);
+        }
+
+        void fail(final Throwable e) {
+            error = e;
+            done = true;
+            LockSupport.unpark(caller);
+        }
+
+        /**
+         * Wait for the owner thread, call in progress can not be abandoned,
+         * so interrupt is cleared while parked and restored on return
+         */
+        Object await() throws Throwable {
+            int spins = 0;
+            boolean interrupted = false;
+            while (!done) {
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.park(this);
+                    interrupted = Thread.interrupted() || interrupted;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (Objects.nonNull(error)) throw error;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Concurrency limit of a single foreign function, see @Concurrency.
+ *
+ * Permits are split into stripes to reduce contention; a thread takes 
+ * a permit from its home stripe first, then from any other stripe,
+ * and always returns it to the home stripe, so total number of permits is preserved.
+ * Waiting callers spin briefly and then park with increasing timeout,
+ * no memory is allocated on the call path. Waiting is not fair.
+ */
+public final class Permits {
+
+    private final static int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+    private final static long MAX_PARK = 1_000_000;
+    private final static int STRIDE = 16;
+
+    private final int limit;
+    private final int mask;
+    private final AtomicIntegerArray slots;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+
+    Permits(final int limit) {
+        super();
+        this.limit = limit;
+        final int stripes = Integer.highestOneBit(Math.max(1, Math.min(limit, Runtime.getRuntime().availableProcessors())));
+        this.mask = stripes - 1;
+        this.slots = new AtomicIntegerArray(stripes * STRIDE);
+        int i = -1;
+        while (++i < stripes) slots.set(i * STRIDE, limit / stripes + (i < limit % stripes ? 1 : 0));
+    }
+
+    /**
+     * Take a permit, waiting if none is available.
+     * Interrupt is cleared while parked and restored on return.
+     */
+    void acquire() {
+        if (tryAcquire()) return;
+        waiting.incrementAndGet();
+        final long start = System.nanoTime();
+        boolean interrupted = false;
+        try {
+            int spins = 0;
+            long park = 1_000;
+            while (!tryAcquire()) {
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, park);
+                    interrupted = Thread.interrupted() || interrupted;
+                    park = Math.min(MAX_PARK, park * 2);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+            waiting.decrementAndGet();
+            waits.increment();
+            waitTime.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Return permit to the home stripe of the current thread
+     */
+    void release() {
+        slots.getAndIncrement(home() * STRIDE);
+    }
+
+    private boolean tryAcquire() {
+        final int home = home();
+        int i = 0;
+        while (i <= mask) {
+            final int index = ((home + i) & mask) * STRIDE;
+            final int available = slots.get(index);
+            if (available > 0) {
+                if (slots.compareAndSet(index, available, available - 1)) return true;
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private int home() {
+        return (int) Thread.currentThread().threadId() & mask;
+    }
+
+    /**
+     * Maximum number of concurrent calls
+     *
+     * @return
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Number of currently free permits
+     *
+     * @return
+     */
+    public int available() {
+        int sum = 0;
+        int i = -1;
+        while (++i <= mask) sum += slots.get(i * STRIDE);
+        return sum;
+    }
+
+    /**
+     * Number of callers currently waiting for a permit (queue depth)
+     *
+     * @return
+     */
+    public int waiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Total number of calls which had to wait for a permit
+     *
+     * @return
+     */
+    public long waits() {
+        return waits.sum();
+    }
+
+    /**
+     * Total time spent waiting for permits in nanoseconds
+     *
+     * @return
+     */
+    public long waitTime() {
+        return waitTime.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("limit %d, available %d, waiting %d, waits %d, wait time %.1f ms", limit, available(), waiting(), waits(), waitTime() / 1_000_000.0);
+    }
+}
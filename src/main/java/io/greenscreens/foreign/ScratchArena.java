@@ -0,0 +1,234 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reusable thread bound scratch memory for temporary foreign call arguments.
+ *
+ * Every platform thread owns a memory block from which arguments are sliced.
+ * Opened scratch arena is a frame over that block; closing it returns
+ * all allocated memory back to the block, so nested (re-entrant) calls
+ * from foreign callbacks are supported as long as frames are closed in order.
+ * Allocations not fitting into the block are served from a confined arena
+ * released on close, and the block is grown on next outermost open.
+ * Upcall stubs created with a frame use that confined arena, so they are released on close.
+ *
+ * Frame is only a SegmentAllocator, not an Arena: sliced segments share the scope of
+ * the thread block and stay accessible after close, while their memory is reused 
+ * by the next frame. Segments must not be used after the frame is closed.
+ *
+ * Thread block is allocated from its own shared arena, closed when block is grown
+ * or when thread ends, so no GC tracked memory is created per call.
+ *
+ * Virtual threads use a per-frame confined arena, to prevent keeping a memory block
+ * for every virtual thread.
+ *
+ * Confined library instances own a Scratch with confined arena,
+ * used instead of the thread bound one and released with the instance.
+ *
+ * NOTE: Sliced memory is not zeroed, allocated segments must be fully written before use.
+ *
+ * Usage:
+ * <pre>
+ * try (ScratchArena arena = ScratchArena.open()) {
+ *     final MemorySegment name = arena.allocateFrom("value");
+ *     ...
+ * }
+ * </pre>
+ */
+public final class ScratchArena implements SegmentAllocator, AutoCloseable {
+
+    private final static long INITIAL_SIZE = Long.getLong("io.greenscreens.ffm.scratch.size", 16 * 1024);
+    private final static long MAXIMUM_SIZE = Long.getLong("io.greenscreens.ffm.scratch.max", 1024 * 1024);
+
+    private final static Cleaner CLEANER = Cleaner.create();
+    private final static ThreadLocal<Scratch> local = ThreadLocal.withInitial(Scratch::new);
+
+    private final Scratch owner;
+    private long mark;
+    private Arena overflow;
+    private Runnable[] actions;
+    private int count;
+
+    private ScratchArena(final Scratch owner) {
+        super();
+        this.owner = owner;
+    }
+
+    /**
+     * Open scratch memory frame for the current thread
+     *
+     * @return
+     */
+    public static ScratchArena open() {
+        if (Thread.currentThread().isVirtual()) return new ScratchArena(null);
+        return local.get().open();
+    }
+
+    @Override
+    public MemorySegment allocate(final long byteSize, final long byteAlignment) {
+        if (Objects.nonNull(owner)) {
+            final MemorySegment segment = owner.slice(byteSize, byteAlignment);
+            if (Objects.nonNull(segment)) return segment;
+        }
+        return overflow().allocate(byteSize, byteAlignment);
+    }
+
+    /**
+     * Confined arena closed together with this frame, 
+     * for memory which must not outlive the frame, such as upcall stubs
+     *
+     * @return
+     */
+    Arena arena() {
+        return overflow();
+    }
+
+    /**
+     * Register action executed on close, before frame memory is released.
+     * Used to copy output arguments back into Java arrays.
+     *
+     * @param action
+     */
+    void onClose(final Runnable action) {
+        if (Objects.isNull(actions)) actions = new Runnable[4];
+        if (count == actions.length) actions = Arrays.copyOf(actions, count * 2);
+        actions[count++] = action;
+    }
+
+    /**
+     * Release all memory allocated through this frame
+     */
+    @Override
+    public void close() {
+        try {
+            int i = -1;
+            while (++i < count) actions[i].run();
+        } finally {
+            if (count > 0) Arrays.fill(actions, 0, count, null);
+            count = 0;
+            if (Objects.nonNull(overflow)) {
+                overflow.close();
+                overflow = null;
+            }
+            if (Objects.nonNull(owner)) owner.close(this);
+        }
+    }
+
+    private Arena overflow() {
+        if (Objects.isNull(overflow)) overflow = Arena.ofConfined();
+        return overflow;
+    }
+
+    /**
+     * Per thread memory block with stack of opened frames
+     */
+    static final class Scratch {
+
+        private final boolean confined;
+        private final Thread thread;
+        private final Arena[] memory = new Arena[1];
+        private MemorySegment block;
+        private long offset;
+        private long required;
+        private ScratchArena[] frames;
+        private int depth;
+
+        /**
+         * Thread bound scratch, its block is released when thread ends
+         */
+        Scratch() {
+            this(false);
+            final Arena[] owned = memory;
+            CLEANER.register(this, () -> owned[0].close());
+        }
+
+        /**
+         * @param confined If true, blocks are confined to the current thread 
+         *        and must be released by release method
+         */
+        Scratch(final boolean confined) {
+            super();
+            this.confined = confined;
+            this.thread = Thread.currentThread();
+            this.block = allocate(INITIAL_SIZE);
+            this.frames = new ScratchArena[4];
+        }
+
+        ScratchArena open() {
+            if (depth == 0) grow();
+            if (depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+            ScratchArena frame = frames[depth];
+            if (Objects.isNull(frame)) {
+                frame = new ScratchArena(this);
+                frames[depth] = frame;
+            }
+            frame.mark = offset;
+            depth++;
+            return frame;
+        }
+
+        void close(final ScratchArena frame) {
+            if (depth == 0 || frames[depth - 1] != frame) throw new IllegalStateException("Scratch arena closed out of order");
+            offset = frame.mark;
+            depth--;
+        }
+
+        MemorySegment slice(final long byteSize, final long byteAlignment) {
+            final long base = block.address();
+            final long start = ((base + offset + byteAlignment - 1) & -byteAlignment) - base;
+            final long end = start + byteSize;
+            if (end > block.byteSize()) {
+                required = Math.max(required, offset + byteSize + byteAlignment);
+                return null;
+            }
+            offset = end;
+            return block.asSlice(start, byteSize);
+        }
+
+        /**
+         * Grow block to the size required by previous calls, only when no frames are opened.
+         * Previous block is released immediately.
+         */
+        private void grow() {
+            if (required <= block.byteSize()) return;
+            final long size = Math.min(MAXIMUM_SIZE, Math.max(required, block.byteSize() * 2));
+            if (size > block.byteSize()) block = allocate(size);
+            required = 0;
+        }
+
+        /**
+         * Open frame on the instance scratch memory, only from the thread which created it
+         *
+         * @return
+         */
+        ScratchArena confined() {
+            if (thread != Thread.currentThread()) throw Generation.wrongThread();
+            return open();
+        }
+
+        /**
+         * Release memory block of the confined scratch
+         */
+        void release() {
+            memory[0].close();
+        }
+
+        private MemorySegment allocate(final long size) {
+            final Arena previous = memory[0];
+            final Arena arena = confined ? Arena.ofConfined() : Arena.ofShared();
+            final MemorySegment segment = arena.allocate(size);
+            memory[0] = arena;
+            if (Objects.nonNull(previous)) previous.close();
+            return segment;
+        }
+    }
+}
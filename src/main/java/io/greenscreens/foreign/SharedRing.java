@@ -0,0 +1,270 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Memory mapped ring of call slots shared between the caller process
+ * and the isolated worker process. File is created in "/dev/shm" (if available),
+ * so data is exchanged through shared memory pages without socket copies.
+ *
+ * Every slot has a state word moved by both sides:
+ * FREE -> CLAIMED -> REQUEST (caller) -> RUNNING -> RESPONSE (worker) -> FREE (caller).
+ * Both sides spin briefly, then park with growing delay up to 1ms while waiting.
+ * Worker process liveness is checked only when parking, never within the spin phase.
+ */
+final class SharedRing {
+
+    final static int FREE = 0;
+    final static int CLAIMED = 1;
+    final static int REQUEST = 2;
+    final static int RUNNING = 3;
+    final static int RESPONSE = 4;
+
+    private final static int MAGIC = 0x46464D52;
+    private final static long HEADER = 64;
+    private final static long SLOT_HEADER = 64;
+    private final static long READY = 4;
+    private final static long STATE = 0;
+    private final static long METHOD = 4;
+
+    private final static int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 256 : 0;
+    private final static long PARK_MAX = 1_000_000;
+
+    private final static VarHandle INT = ValueLayout.JAVA_INT.varHandle();
+
+    private final Path path;
+    private final int slots;
+    private final int slotSize;
+    private final MemorySegment segment;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private SharedRing(final Path path, final int slots, final int slotSize, final MemorySegment segment) {
+        super();
+        this.path = path;
+        this.slots = slots;
+        this.slotSize = slotSize;
+        this.segment = segment;
+    }
+
+    /**
+     * Create new ring file in shared memory
+     *
+     * @param slots
+     * @param slotSize
+     * @return
+     */
+    static SharedRing create(final int slots, final int slotSize) {
+        try {
+            final Path shm = Path.of("/dev/shm");
+            final Path dir = Files.isDirectory(shm) && Files.isWritable(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+            final Path path = Files.createTempFile(dir, "ffm-", ".ring");
+            final SharedRing ring = map(path, slots, slotSize);
+            INT.setVolatile(ring.segment, 0L, MAGIC);
+            return ring;
+        } catch (IOException e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    /**
+     * Map existing ring file created by the caller process
+     *
+     * @param path
+     * @param slots
+     * @param slotSize
+     * @return
+     */
+    static SharedRing open(final Path path, final int slots, final int slotSize) {
+        final SharedRing ring = map(path, slots, slotSize);
+        if ((int) INT.getVolatile(ring.segment, 0L) != MAGIC) throw new UnavailableException("Invalid shared ring " + path);
+        return ring;
+    }
+
+    /**
+     * Mapping is released when ring is no longer referenced, 
+     * so a late caller can not touch unmapped memory
+     */
+    private static SharedRing map(final Path path, final int slots, final int slotSize) {
+        final long size = HEADER + slots * (SLOT_HEADER + slotSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new SharedRing(path, slots, slotSize, channel.map(FileChannel.MapMode.READ_WRITE, 0, size, Arena.ofAuto()));
+        } catch (IOException e) {
+            throw new UnavailableException(e);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int slots() {
+        return slots;
+    }
+
+    /**
+     * Remove ring file name, mapping stays valid in both processes
+     */
+    void unlink() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // file is in temporary storage
+        }
+    }
+
+    /**
+     * Worker signals it is linked and ready to accept calls
+     */
+    void ready() {
+        INT.setVolatile(segment, READY, 1);
+    }
+
+    boolean isReady() {
+        return (int) INT.getVolatile(segment, READY) == 1;
+    }
+
+    /**
+     * Claim free slot, waiting if all slots are in use.
+     * Interrupt is cleared while parked and restored on return.
+     *
+     * @param alive Checked while parked
+     * @return slot index
+     */
+    int claim(final Process alive) {
+        int spins = 0;
+        long park = 1_000;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                final int start = next.getAndIncrement();
+                int i = -1;
+                while (++i < slots) {
+                    final int slot = Math.floorMod(start + i, slots);
+                    if (INT.compareAndSet(segment, offset(slot), FREE, CLAIMED)) return slot;
+                }
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    if (!alive.isAlive()) throw new UnavailableException("Isolated worker terminated");
+                    LockSupport.parkNanos(this, park);
+                    interrupted = Thread.interrupted() || interrupted;
+                    park = Math.min(park << 1, PARK_MAX);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Data area of the slot in native byte order
+     *
+     * @param slot
+     * @return
+     */
+    ByteBuffer buffer(final int slot) {
+        return segment.asSlice(offset(slot) + SLOT_HEADER, slotSize).asByteBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Publish call request to the worker
+     *
+     * @param slot
+     * @param method Interface method index
+     */
+    void request(final int slot, final int method) {
+        final long offset = offset(slot);
+        INT.set(segment, offset + METHOD, method);
+        INT.setVolatile(segment, offset + STATE, REQUEST);
+    }
+
+    /**
+     * Wait for the worker response.
+     * Interrupt is cleared while parked and restored on return.
+     *
+     * @param slot
+     * @param alive Checked while parked
+     * @param timeout Maximum wait in nanoseconds, 0 to wait while worker is alive
+     * @return false if response did not arrive within timeout
+     */
+    boolean await(final int slot, final Process alive, final long timeout) {
+        final long offset = offset(slot) + STATE;
+        final long start = timeout > 0 ? System.nanoTime() : 0;
+        int spins = 0;
+        long park = 1_000;
+        boolean interrupted = false;
+        try {
+            while ((int) INT.getVolatile(segment, offset) != RESPONSE) {
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    if (!alive.isAlive()) throw new UnavailableException("Isolated worker terminated within the call");
+                    if (timeout > 0 && System.nanoTime() - start > timeout) return false;
+                    LockSupport.parkNanos(this, park);
+                    interrupted = Thread.interrupted() || interrupted;
+                    park = Math.min(park << 1, PARK_MAX);
+                }
+            }
+            return true;
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Release slot after the response is read
+     *
+     * @param slot
+     */
+    void free(final int slot) {
+        INT.setVolatile(segment, offset(slot) + STATE, FREE);
+    }
+
+    /**
+     * Worker side, take the next requested call
+     *
+     * @param slot
+     * @return true if slot is taken for execution
+     */
+    boolean take(final int slot) {
+        return INT.compareAndSet(segment, offset(slot) + STATE, REQUEST, RUNNING);
+    }
+
+    /**
+     * Worker side, interface method index of the requested call
+     *
+     * @param slot
+     * @return
+     */
+    int method(final int slot) {
+        return (int) INT.get(segment, offset(slot) + METHOD);
+    }
+
+    /**
+     * Worker side, publish call result
+     *
+     * @param slot
+     */
+    void respond(final int slot) {
+        INT.setVolatile(segment, offset(slot) + STATE, RESPONSE);
+    }
+
+    private long offset(final int slot) {
+        return HEADER + slot * (SLOT_HEADER + slotSize);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Objects;
+
+import io.greenscreens.foreign.annotations.Sentinel;
+
+/**
+ * Description of a foreign function mapped to the interface method.
+ * Created from annotations at runtime, or by the generated bindings at compile time,
+ * allowing engine to link foreign functions without reflection.
+ */
+public final class Signature {
+
+    final static byte OUT = 1;
+    final static byte IN_OUT = 2;
+
+    final String name;
+    final MethodType type;
+    final FunctionDescriptor descriptor;
+    final String[] callbacks;
+    final byte[] outputs;
+
+    int variadic = -1;
+    boolean trivial;
+    boolean heap;
+    boolean direct;
+    boolean threadSafe;
+    boolean async;
+    boolean blocking;
+    int concurrency;
+    boolean collector;
+    String collectorKey = "";
+    int sizeIndex = -1;
+    int sizeValue;
+    int result = -1;
+    Sentinel errno;
+    Sentinel probe = Sentinel.NONE;
+    String probeCheck = "";
+    String probeMessage = "";
+
+    private Signature(final String name, final MethodType type, final FunctionDescriptor descriptor) {
+        super();
+        this.name = name;
+        this.type = type;
+        this.descriptor = descriptor;
+        this.callbacks = new String[type.parameterCount()];
+        this.outputs = new byte[type.parameterCount()];
+    }
+
+    /**
+     * Describe foreign function
+     *
+     * @param name Foreign function name
+     * @param type Java method signature
+     * @param descriptor Foreign function descriptor
+     * @return
+     */
+    public static Signature of(final String name, final MethodType type, final FunctionDescriptor descriptor) {
+        return new Signature(Objects.requireNonNull(name), Objects.requireNonNull(type), Objects.requireNonNull(descriptor));
+    }
+
+    /**
+     * Trivial (critical) foreign function, see @Trivial
+     *
+     * @param heap
+     * @return
+     */
+    public Signature trivial(final boolean heap) {
+        this.trivial = true;
+        this.heap = heap;
+        return this;
+    }
+
+    /**
+     * Index of the first variadic argument
+     *
+     * @param index
+     * @return
+     */
+    public Signature variadic(final int index) {
+        this.variadic = index;
+        return this;
+    }
+
+    /**
+     * Return buffer as a view over the native memory, see @Direct
+     *
+     * @return
+     */
+    public Signature direct() {
+        this.direct = true;
+        return this;
+    }
+
+    /**
+     * Foreign function safe for concurrent calls, see @ThreadSafe
+     *
+     * @return
+     */
+    public Signature threadSafe() {
+        this.threadSafe = true;
+        return this;
+    }
+
+    /**
+     * Interface method returns CompletableFuture of the foreign function result
+     *
+     * @return
+     */
+    public Signature async() {
+        this.async = true;
+        return this;
+    }
+
+    /**
+     * Long running foreign function offloaded from virtual threads, see @Blocking
+     *
+     * @return
+     */
+    public Signature blocking() {
+        this.blocking = true;
+        return this;
+    }
+
+    /**
+     * Maximum number of concurrent calls, see @Concurrency
+     *
+     * @param limit
+     * @return
+     */
+    public Signature concurrency(final int limit) {
+        this.concurrency = limit;
+        return this;
+    }
+
+    /**
+     * Foreign function used to release remote pointers, see @GarbageCollector
+     *
+     * @param key
+     * @return
+     */
+    public Signature collector(final String key) {
+        this.collector = true;
+        this.collectorKey = Objects.isNull(key) ? "" : key;
+        return this;
+    }
+
+    /**
+     * Size of returned data, see @Size
+     *
+     * @param value
+     * @param index
+     * @return
+     */
+    public Signature size(final int value, final int index) {
+        this.sizeValue = value;
+        this.sizeIndex = index;
+        return this;
+    }
+
+    /**
+     * Parameter receiving returned data, see @Result
+     *
+     * @param index
+     * @return
+     */
+    public Signature result(final int index) {
+        this.result = index;
+        return this;
+    }
+
+    /**
+     * Capture "errno" within the call, see @ErrNo
+     *
+     * @param sentinel Return value indicating failed call
+     * @return
+     */
+    public Signature errno(final Sentinel sentinel) {
+        this.errno = Objects.isNull(sentinel) ? Sentinel.NONE : sentinel;
+        return this;
+    }
+
+    /**
+     * Probe library error state when result matches sentinel, see @ErrorProbe
+     *
+     * @param sentinel Return value indicating possibly failed call
+     * @param check Name of the function reporting error state
+     * @param message Name of the function returning error description
+     * @return
+     */
+    public Signature probe(final Sentinel sentinel, final String check, final String message) {
+        this.probe = Objects.isNull(sentinel) ? Sentinel.NONE : sentinel;
+        this.probeCheck = Objects.isNull(check) ? "" : check;
+        this.probeMessage = Objects.isNull(message) ? "" : message;
+        return this;
+    }
+
+    /**
+     * Callback parameter, see @Callback
+     *
+     * @param index
+     * @param name
+     * @return
+     */
+    public Signature callback(final int index, final String name) {
+        this.callbacks[index] = Objects.isNull(name) ? "" : name;
+        return this;
+    }
+
+    /**
+     * Output array parameter, see @Out and @InOut
+     *
+     * @param index
+     * @param copyIn
+     * @return
+     */
+    public Signature output(final int index, final boolean copyIn) {
+        this.outputs[index] = copyIn ? IN_OUT : OUT;
+        return this;
+    }
+
+    boolean hasSize() {
+        return sizeIndex > -1 || sizeValue > 0;
+    }
+
+    /**
+     * Signatures are equal when they link the same foreign function with the same options,
+     * used to verify generated bindings against the runtime derivation
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Signature other)) return false;
+        return name.equals(other.name) && type.equals(other.type) && descriptor.equals(other.descriptor)
+                && Arrays.equals(callbacks, other.callbacks) && Arrays.equals(outputs, other.outputs)
+                && variadic == other.variadic && trivial == other.trivial && heap == other.heap
+                && direct == other.direct && threadSafe == other.threadSafe && async == other.async
+                && blocking == other.blocking && concurrency == other.concurrency
+                && collector == other.collector && collectorKey.equals(other.collectorKey)
+                && sizeIndex == other.sizeIndex && sizeValue == other.sizeValue && result == other.result
+                && errno == other.errno && probe == other.probe
+                && probeCheck.equals(other.probeCheck) && probeMessage.equals(other.probeMessage);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, type, descriptor);
+    }
+
+    @Override
+    public String toString() {
+        return name + type;
+    }
+}
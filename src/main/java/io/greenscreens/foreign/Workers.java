@@ -0,0 +1,28 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared bounded pool of platform threads used to run foreign calls 
+ * off the caller thread. Pool size is set with system property 
+ * "io.greenscreens.ffm.workers", default is number of processors.
+ */
+enum Workers {
+    ;
+
+    private final static int SIZE = Math.max(1, Integer.getInteger("io.greenscreens.ffm.workers", Runtime.getRuntime().availableProcessors()));
+    private final static ExecutorService pool = Executors.newFixedThreadPool(SIZE, Thread.ofPlatform().daemon().name("ffm-worker-", 0).factory());
+
+    /**
+     * Shared worker pool, created on first use
+     *
+     * @return
+     */
+    static ExecutorService pool() {
+        return pool;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to identify long running or blocking foreign function.
+ * When called from a virtual thread, call is executed on a platform worker thread
+ * while virtual thread is parked, preventing carrier thread pinning.
+ * Calls from platform threads and @Trivial functions are executed inline.
+ * Used on the interface, applies to all methods.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Blocking {
+
+}
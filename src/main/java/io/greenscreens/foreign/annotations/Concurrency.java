@@ -0,0 +1,25 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to limit number of concurrent calls of a foreign function.
+ * Value 1 serializes all calls. Callers over the limit wait for a free permit.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
+public @interface Concurrency {
+
+    /**
+     * Maximum number of concurrent calls
+     *
+     * @return
+     */
+    int value() default 1;
+}
@@ -0,0 +1,21 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to return ByteBuffer or CharBuffer as a direct view over the
+ * native memory, without copying data into the Java heap.
+ * Return size must be defined with @Size. Pointer is not released by
+ * @GarbageCollector, caller is responsible to free the native memory.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
+public @interface Direct {
+
+}
@@ -0,0 +1,26 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to capture "errno" set by the foreign function within the same call.
+ * Captured value is available through CallState.errno() on the calling thread.
+ * When return value matches the sentinel, ForeignException with captured errno is thrown.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
+public @interface ErrNo {
+
+    /**
+     * Return value indicating failed call
+     *
+     * @return
+     */
+    Sentinel value() default Sentinel.NONE;
+}
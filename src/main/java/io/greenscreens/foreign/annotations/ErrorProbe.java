@@ -0,0 +1,50 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to check library error state within the same call.
+ * When returned value matches the sentinel, "check" function is called,
+ * and if it reports an error, ForeignException with "message" function result is thrown.
+ * Successful calls are not probed.
+ *
+ * Used on the interface, applies to all non void methods except probe functions.
+ * Used on the method, overrides interface settings; Sentinel.NONE disables probing.
+ * Default Sentinel.NULL does not match boolean results, methods reporting failure
+ * with false opt in with method annotation using Sentinel.ZERO.
+ *
+ * Probe functions are interface methods without parameters; 
+ * "check" returns boolean or integer error code, "message" returns String.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface ErrorProbe {
+
+    /**
+     * Return value indicating possibly failed call
+     *
+     * @return
+     */
+    Sentinel value() default Sentinel.NULL;
+
+    /**
+     * Name of the function reporting error state (e.g. IsError);
+     * if empty, sentinel alone indicates failure
+     *
+     * @return
+     */
+    String check() default "";
+
+    /**
+     * Name of the function returning error description (e.g. GetError)
+     *
+     * @return
+     */
+    String message() default "";
+}
@@ -30,4 +30,59 @@ public @interface External {
      * @return
      */
     String property() default "";
+
+    /**
+     * Class path resource containing the library (without extension), resolved 
+     * relative to the interface class, e.g. "/native/linux-x86_64/cryptojs".
+     * Library is extracted once into a cache directory named by its content hash.
+     *
+     * @return
+     */
+    String resource() default "";
+
+    /**
+     * Optimised library variants, ordered from the most optimised.
+     * The first one supported by the CPU is used, otherwise 
+     * library is loaded from name, property or resource.
+     *
+     * @return
+     */
+    Variant[] variants() default {};
+
+    /**
+     * Link foreign functions on the first call instead of on instance creation.
+     * Missing library function fails only when called.
+     *
+     * @return
+     */
+    boolean lazy() default false;
+
+    /**
+     * Execute all calls of the interface instance on a single owner thread,
+     * for libraries which must be called from the thread that initialised them.
+     * Every instance has its own owner thread.
+     *
+     * @return
+     */
+    boolean affinity() default false;
+
+    /**
+     * Load the library in a separate worker JVM, so a crash within the library
+     * does not terminate the application. Worker is restarted automatically.
+     * Callbacks are not supported, returned pointers are valid only as
+     * arguments of the next calls.
+     *
+     * @return
+     */
+    boolean isolated() default false;
+
+    /**
+     * Number of private library copies loaded for the interface instance.
+     * Every copy is loaded from its own temporary file, so it has separate global state, 
+     * and each call leases a free copy. Allows parallel calls of libraries 
+     * which can serve only one call at a time per process.
+     *
+     * @return
+     */
+    int copies() default 1;
 }
@@ -0,0 +1,21 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to identify caller supplied destination for the data returned by the foreign function.
+ * Parameter is not passed to the foreign function; returned "pointer" data of @Size length 
+ * is copied into the destination (primitive array, ByteBuffer or MemorySegment) 
+ * and method returns number of copied bytes (int, long or void).
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.PARAMETER })
+public @interface Result {
+
+}
@@ -0,0 +1,25 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+/**
+ * Rule to detect failed foreign function call from its return value
+ */
+public enum Sentinel {
+
+    /** Return value is not checked */
+    NONE,
+
+    /** Null pointer or null reference, boolean results never match */
+    NULL,
+
+    /** Numeric zero or false */
+    ZERO,
+
+    /** Numeric non zero value or true */
+    NONZERO,
+
+    /** Negative numeric value */
+    NEGATIVE
+}
@@ -10,10 +10,20 @@ import java.lang.annotation.Target;
 
 /**
  * Annotation to identify foreign method is a trivial method, allowing JVM
- * internal optimizations
+ * internal optimizations.
+ *
+ * Trivial method must be short, non-blocking and must not call back into Java.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD })
 public @interface Trivial {
 
+    /**
+     * Pass primitive arrays (except boolean[]) directly from the Java heap,
+     * without copying them into the native memory.
+     * Native function must not keep array pointer after the call returns.
+     *
+     * @return
+     */
+    boolean heap() default false;
 }
@@ -0,0 +1,39 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Optimised build of the external library, used within @External(variants).
+ * Variant is selected when the CPU supports all required features,
+ * named as CPU flags reported by the OS, e.g. "avx2", "avx512f", "asimd".
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface Variant {
+
+    /**
+     * A path to the external library (without extension), see @External(name)
+     *
+     * @return
+     */
+    String name() default "";
+
+    /**
+     * Class path resource containing the library (without extension), see @External(resource)
+     *
+     * @return
+     */
+    String resource() default "";
+
+    /**
+     * CPU features required by the variant, case insensitive (e.g. "avx2")
+     *
+     * @return
+     */
+    String[] features() default {};
+}
@@ -0,0 +1,346 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import io.greenscreens.foreign.annotations.Blocking;
+import io.greenscreens.foreign.annotations.Callback;
+import io.greenscreens.foreign.annotations.Concurrency;
+import io.greenscreens.foreign.annotations.Direct;
+import io.greenscreens.foreign.annotations.ErrNo;
+import io.greenscreens.foreign.annotations.ErrorProbe;
+import io.greenscreens.foreign.annotations.External;
+import io.greenscreens.foreign.annotations.GarbageCollector;
+import io.greenscreens.foreign.annotations.InOut;
+import io.greenscreens.foreign.annotations.Out;
+import io.greenscreens.foreign.annotations.Result;
+import io.greenscreens.foreign.annotations.Size;
+import io.greenscreens.foreign.annotations.ThreadSafe;
+import io.greenscreens.foreign.annotations.Trivial;
+
+/**
+ * Annotation processor generating static bindings for @External interfaces.
+ *
+ * For every interface, a class named {@code <Interface>$FFM} is generated in the same package,
+ * containing precomputed foreign function signatures and descriptors and a direct
+ * MethodHandle.invokeExact call per interface method.
+ * ExternalFactory uses generated binding automatically when present,
+ * so no reflection or Proxy is required on startup.
+ */
+@SupportedAnnotationTypes("io.greenscreens.foreign.annotations.External")
+public final class ExternalProcessor extends AbstractProcessor {
+
+    private final static String SUFFIX = "$FFM";
+
+    /**
+     * List of allowed method parameter and return types, same as used by the runtime engine
+     */
+    private final static Set<String> ALLOWED_TYPES = Set.of(
+            "byte", "boolean", "char", "int", "long", "float", "double", "short",
+            "java.lang.Byte", "java.lang.Boolean", "java.lang.Character", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Short",
+            "java.lang.String", "java.lang.invoke.MethodHandle", "java.lang.foreign.MemorySegment", "void", "java.lang.Void", "java.nio.ByteBuffer", "java.nio.CharBuffer",
+            "byte[]", "boolean[]", "char[]", "int[]", "long[]", "float[]", "double[]", "short[]");
+
+    private final static String FUTURE = "java.util.concurrent.CompletableFuture";
+
+    private final static Map<String, String> WRAPPERS = Map.of(
+            "java.lang.Byte", "byte", "java.lang.Boolean", "boolean", "java.lang.Character", "char", "java.lang.Integer", "int",
+            "java.lang.Long", "long", "java.lang.Float", "float", "java.lang.Double", "double", "java.lang.Short", "short");
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        for (final Element element : round.getElementsAnnotatedWith(External.class)) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "@External is supported on interfaces only", element);
+                continue;
+            }
+            if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "@External interface must be public to generate binding", element);
+                continue;
+            }
+            try {
+                generate((TypeElement) element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generate binding class source for @External interface
+     *
+     * @param type
+     * @throws IOException
+     */
+    private void generate(final TypeElement type) throws IOException {
+
+        final String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String binary = processingEnv.getElementUtils().getBinaryName(type).toString();
+        final String name = (pkg.isEmpty() ? binary : binary.substring(pkg.length() + 1)) + SUFFIX;
+        final List<ExecutableElement> methods = methods(type);
+
+        final StringBuilder sb = new StringBuilder();
+        if (!pkg.isEmpty()) sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import java.lang.foreign.FunctionDescriptor;\n");
+        sb.append("import java.lang.foreign.ValueLayout;\n");
+        sb.append("import java.lang.invoke.MethodHandle;\n");
+        sb.append("import java.lang.invoke.MethodType;\n\n");
+        sb.append("import io.greenscreens.foreign.Linkage;\n");
+        sb.append("import io.greenscreens.foreign.Signature;\n");
+        sb.append("import io.greenscreens.foreign.UnavailableException;\n\n");
+        sb.append("/**\n * Generated binding for ").append(type.getQualifiedName()).append(", do not edit.\n */\n");
+        sb.append("public final class ").append(name).append(" implements ").append(type.getQualifiedName()).append(" {\n\n");
+
+        final List<Integer> linked = new ArrayList<>();
+        sb.append("    private final static Signature[] SIGNATURES = {\n");
+        int i = -1;
+        while (++i < methods.size()) {
+            final ExecutableElement method = methods.get(i);
+            if (!isAllowed(method)) continue;
+            sb.append("        ").append(signature(method)).append(",\n");
+            linked.add(i);
+        }
+        sb.append("    };\n\n");
+
+        for (final int index : linked) {
+            sb.append("    private final MethodHandle handle").append(index).append(";\n");
+        }
+
+        sb.append("\n    public ").append(name).append("(final Linkage linkage) {\n");
+        sb.append("        final MethodHandle[] handles = linkage.link(SIGNATURES);\n");
+        i = -1;
+        while (++i < linked.size()) {
+            sb.append("        this.handle").append(linked.get(i)).append(" = handles[").append(i).append("];\n");
+        }
+        sb.append("    }\n");
+
+        i = -1;
+        while (++i < methods.size()) {
+            method(sb, methods.get(i), linked.contains(i) ? "handle" + i : null);
+        }
+        sb.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(pkg.isEmpty() ? name : pkg + "." + name, type).openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    /**
+     * List of abstract interface methods to implement, including inherited ones
+     */
+    private List<ExecutableElement> methods(final TypeElement type) {
+        final Map<String, ExecutableElement> unique = new LinkedHashMap<>();
+        ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type)).stream()
+                .filter(m -> m.getModifiers().contains(Modifier.ABSTRACT))
+                .forEach(m -> unique.putIfAbsent(m.getSimpleName() + m.getParameters().stream().map(p -> erasure(p.asType())).collect(Collectors.joining(",", "(", ")")), m));
+        return new ArrayList<>(unique.values());
+    }
+
+    /**
+     * Generate method implementation calling linked handle
+     */
+    private void method(final StringBuilder sb, final ExecutableElement method, final String handle) {
+
+        final TypeMirror ret = method.getReturnType();
+        final List<? extends VariableElement> params = method.getParameters();
+
+        if (FUTURE.equals(erasure(ret))) sb.append("\n    @SuppressWarnings(\"unchecked\")");
+        sb.append("\n    @Override\n    public ").append(ret).append(' ').append(method.getSimpleName()).append('(');
+        sb.append(params.stream().map(p -> "final " + p.asType() + " " + p.getSimpleName()).collect(Collectors.joining(", ")));
+        sb.append(") {\n");
+
+        if (Objects.isNull(handle)) {
+            sb.append("        throw new UnavailableException();\n    }\n");
+            return;
+        }
+
+        final String args = params.stream().map(p -> p.getSimpleName().toString()).collect(Collectors.joining(", "));
+        final boolean isVoid = ret.getKind() == TypeKind.VOID;
+
+        sb.append("        try {\n            ");
+        if (!isVoid) sb.append("return (").append(erasure(ret)).append(") ");
+        sb.append(handle).append(".invokeExact(").append(args).append(");\n");
+        sb.append("        } catch (RuntimeException | Error ex$) {\n");
+        sb.append("            throw ex$;\n");
+        sb.append("        } catch (Throwable ex$) {\n");
+        sb.append("            throw new UnavailableException(ex$);\n");
+        sb.append("        }\n    }\n");
+    }
+
+    /**
+     * Generate Signature expression with precomputed descriptor and annotation values
+     */
+    private String signature(final ExecutableElement method) {
+
+        final List<? extends VariableElement> params = method.getParameters();
+        final int result = result(method);
+
+        final String type = params.stream().map(p -> erasure(p.asType()) + ".class")
+                .collect(Collectors.joining(", ", "MethodType.methodType(" + returnType(method) + ".class" + (params.isEmpty() ? "" : ", "), ")"));
+
+        final List<String> layouts = new ArrayList<>();
+        int i = -1;
+        while (++i < params.size()) {
+            if (i == result) continue;
+            layouts.add(layout(unwrap(erasure(params.get(i).asType()))));
+        }
+
+        final String args = String.join(", ", layouts);
+        final String ret = returnType(method);
+        final String descriptor;
+        if (result > -1) {
+            descriptor = "FunctionDescriptor.of(ValueLayout.ADDRESS" + (args.isEmpty() ? "" : ", " + args) + ")";
+        } else if ("void".equals(ret)) {
+            descriptor = "FunctionDescriptor.ofVoid(" + args + ")";
+        } else {
+            descriptor = "FunctionDescriptor.of(" + layout(ret) + (args.isEmpty() ? "" : ", " + args) + ")";
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Signature.of(\"").append(method.getSimpleName()).append("\", ").append(type).append(", ").append(descriptor).append(')');
+        if (FUTURE.equals(erasure(method.getReturnType()))) sb.append(".async()");
+
+        if (method.isVarArgs() && params.size() == 1) sb.append(".variadic(0)");
+
+        final Trivial trivial = method.getAnnotation(Trivial.class);
+        if (Objects.nonNull(trivial)) sb.append(".trivial(").append(trivial.heap()).append(')');
+        if (Objects.nonNull(method.getAnnotation(Direct.class))) sb.append(".direct()");
+        if (Objects.nonNull(method.getAnnotation(ThreadSafe.class)) || Objects.nonNull(method.getEnclosingElement().getAnnotation(ThreadSafe.class))) sb.append(".threadSafe()");
+        if (Objects.nonNull(method.getAnnotation(Blocking.class)) || Objects.nonNull(method.getEnclosingElement().getAnnotation(Blocking.class))) sb.append(".blocking()");
+
+        final Concurrency concurrency = method.getAnnotation(Concurrency.class);
+        if (Objects.nonNull(concurrency)) sb.append(".concurrency(").append(concurrency.value()).append(')');
+
+        final GarbageCollector gc = method.getAnnotation(GarbageCollector.class);
+        if (Objects.nonNull(gc)) sb.append(".collector(").append(quote(gc.value())).append(')');
+
+        final Size size = method.getAnnotation(Size.class);
+        if (Objects.nonNull(size)) sb.append(".size(").append(size.value()).append(", ").append(size.index()).append(')');
+
+        if (result > -1) sb.append(".result(").append(result).append(')');
+
+        final ErrNo errno = method.getAnnotation(ErrNo.class);
+        if (Objects.nonNull(errno)) sb.append(".errno(io.greenscreens.foreign.annotations.Sentinel.").append(errno.value().name()).append(')');
+
+        final ErrorProbe probe = probe(method);
+        if (Objects.nonNull(probe)) {
+            sb.append(".probe(io.greenscreens.foreign.annotations.Sentinel.").append(probe.value().name()).append(", ")
+                .append(quote(probe.check())).append(", ").append(quote(probe.message())).append(')');
+        }
+
+        i = -1;
+        while (++i < params.size()) {
+            final VariableElement param = params.get(i);
+            final Callback callback = param.getAnnotation(Callback.class);
+            if (Objects.nonNull(callback)) sb.append(".callback(").append(i).append(", ").append(quote(callback.value())).append(')');
+            if (Objects.nonNull(param.getAnnotation(Out.class))) sb.append(".output(").append(i).append(", false)");
+            if (Objects.nonNull(param.getAnnotation(InOut.class))) sb.append(".output(").append(i).append(", true)");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Verify if method is allowed for foreign function mapping
+     */
+    private boolean isAllowed(final ExecutableElement method) {
+        if (!method.getTypeParameters().isEmpty()) return false;
+        if (!ALLOWED_TYPES.contains(returnType(method))) return false;
+        return method.getParameters().stream()
+                .allMatch(p -> ALLOWED_TYPES.contains(erasure(p.asType())) || Objects.nonNull(p.getAnnotation(Callback.class)));
+    }
+
+    /**
+     * Find error probe settings, method annotation overrides interface one;
+     * void methods and probe functions are not probed
+     */
+    private ErrorProbe probe(final ExecutableElement method) {
+        final ErrorProbe declared = method.getAnnotation(ErrorProbe.class);
+        final ErrorProbe probe = Objects.nonNull(declared) ? declared : method.getEnclosingElement().getAnnotation(ErrorProbe.class);
+        final String ret = returnType(method);
+        if (Objects.isNull(probe) || "void".equals(ret) || "java.lang.Void".equals(ret)) return null;
+        final String name = method.getSimpleName().toString();
+        if (name.equals(probe.check()) || name.equals(probe.message())) return null;
+        return probe;
+    }
+
+    private int result(final ExecutableElement method) {
+        final List<? extends VariableElement> params = method.getParameters();
+        int i = -1;
+        while (++i < params.size()) {
+            if (Objects.nonNull(params.get(i).getAnnotation(Result.class))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Foreign function result type; for CompletableFuture&lt;X&gt; it is X
+     */
+    private String returnType(final ExecutableElement method) {
+        final TypeMirror ret = method.getReturnType();
+        if (!FUTURE.equals(erasure(ret))) return erasure(ret);
+        final List<? extends TypeMirror> args = ((DeclaredType) ret).getTypeArguments();
+        return args.isEmpty() ? "java.lang.Void" : erasure(args.get(0));
+    }
+
+    private String erasure(final TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private static String unwrap(final String type) {
+        return WRAPPERS.getOrDefault(type, type);
+    }
+
+    /**
+     * Foreign functions can receive either a primitive types or a "pointer"
+     */
+    private static String layout(final String type) {
+        return switch (type) {
+            case "byte" -> "ValueLayout.JAVA_BYTE";
+            case "boolean" -> "ValueLayout.JAVA_BOOLEAN";
+            case "char" -> "ValueLayout.JAVA_CHAR";
+            case "double" -> "ValueLayout.JAVA_DOUBLE";
+            case "float" -> "ValueLayout.JAVA_FLOAT";
+            case "int" -> "ValueLayout.JAVA_INT";
+            case "long" -> "ValueLayout.JAVA_LONG";
+            case "short" -> "ValueLayout.JAVA_SHORT";
+            default -> "ValueLayout.ADDRESS";
+        };
+    }
+
+    private static String quote(final String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
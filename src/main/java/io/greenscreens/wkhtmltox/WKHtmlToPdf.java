@@ -0,0 +1,45 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.wkhtmltox;
+
+import java.lang.foreign.MemorySegment;
+
+import io.greenscreens.foreign.annotations.External;
+
+/**
+ * Interface mapping of WKHTMLTOX PDF functions.
+ * Library must be called from the thread which initialized it,
+ * so all calls are executed on a single owner thread, regardless of the caller thread.
+ */
+@External(property = "wkhtmltopdf.library.path", affinity = true)
+public interface WKHtmlToPdf {
+
+    int wkhtmltopdf_init(final int use_graphics);
+
+    int wkhtmltopdf_deinit();
+
+    String wkhtmltopdf_version();
+
+    MemorySegment wkhtmltopdf_create_global_settings();
+
+    void wkhtmltopdf_destroy_global_settings(final MemorySegment settings);
+
+    MemorySegment wkhtmltopdf_create_object_settings();
+
+    void wkhtmltopdf_destroy_object_settings(final MemorySegment settings);
+
+    void wkhtmltopdf_set_global_setting(final MemorySegment settings, final String name, final String value);
+
+    void wkhtmltopdf_set_object_setting(final MemorySegment settings, final String name, final String value);
+
+    MemorySegment wkhtmltopdf_create_converter(final MemorySegment settings);
+
+    void wkhtmltopdf_destroy_converter(final MemorySegment converter);
+
+    void wkhtmltopdf_add_object(final MemorySegment converter, final MemorySegment settings, final String data);
+
+    int wkhtmltopdf_convert(final MemorySegment converter);
+
+    int wkhtmltopdf_http_error_code(final MemorySegment converter);
+}
@@ -16,6 +16,7 @@ import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Objects;
 
+import io.greenscreens.foreign.ScratchArena;
 import io.greenscreens.wkhtmltox.callback.IIntCallback;
 import io.greenscreens.wkhtmltox.callback.IStringCallback;
 
@@ -172,10 +173,11 @@ public enum WKHtmlToX {
             wkhtmltoimage_set_global_setting = Linker.nativeLinker().downcallHandle(segment, descriptor);
         }
 
-        final Arena gcarena = Arena.ofAuto();
-        final MemorySegment a1 = gcarena.allocateFrom(name);
-        final MemorySegment a2 = gcarena.allocateFrom(value);
-        wkhtmltoimage_set_global_setting.invokeExact(settings, a1, a2);
+        try (ScratchArena gcarena = ScratchArena.open()) {
+            final MemorySegment a1 = gcarena.allocateFrom(name);
+            final MemorySegment a2 = gcarena.allocateFrom(value);
+            wkhtmltoimage_set_global_setting.invokeExact(settings, a1, a2);
+        }
     }
 
     public static MemorySegment wkhtmltoimage_create_converter(final MemorySegment settings, final String data) throws Throwable {
@@ -185,9 +187,10 @@ public enum WKHtmlToX {
             wkhtmltoimage_create_converter = Linker.nativeLinker().downcallHandle(segment, descriptor);
         }
 
-        final Arena gcarena = Arena.ofAuto();
-        final MemorySegment a1 = gcarena.allocateFrom(normalize(data));
-        return (MemorySegment) wkhtmltoimage_create_converter.invokeExact(settings, a1);
+        try (ScratchArena gcarena = ScratchArena.open()) {
+            final MemorySegment a1 = gcarena.allocateFrom(normalize(data));
+            return (MemorySegment) wkhtmltoimage_create_converter.invokeExact(settings, a1);
+        }
     }
 
     public static void wkhtmltoimage_destroy_converter(final MemorySegment converter) throws Throwable {
@@ -328,10 +331,11 @@ public enum WKHtmlToX {
             wkhtmltopdf_set_global_setting = Linker.nativeLinker().downcallHandle(segment, descriptor);
         }
 
-        final Arena gcarena = Arena.ofAuto();
-        final MemorySegment a1 = gcarena.allocateFrom(name);
-        final MemorySegment a2 = gcarena.allocateFrom(value);
-        wkhtmltopdf_set_global_setting.invokeExact(settings, a1, a2);
+        try (ScratchArena gcarena = ScratchArena.open()) {
+            final MemorySegment a1 = gcarena.allocateFrom(name);
+            final MemorySegment a2 = gcarena.allocateFrom(value);
+            wkhtmltopdf_set_global_setting.invokeExact(settings, a1, a2);
+        }
     }
 
     public static void wkhtmltopdf_set_object_setting(final MemorySegment os, final String name, final String value) throws Throwable {
@@ -341,10 +345,11 @@ public enum WKHtmlToX {
             wkhtmltopdf_set_object_setting = Linker.nativeLinker().downcallHandle(segment, descriptor);
         }
 
-        final Arena gcarena = Arena.ofAuto();
-        final MemorySegment a1 = gcarena.allocateFrom(name);
-        final MemorySegment a2 = gcarena.allocateFrom(value);
-        wkhtmltopdf_set_object_setting.invokeExact(os, a1, a2);
+        try (ScratchArena gcarena = ScratchArena.open()) {
+            final MemorySegment a1 = gcarena.allocateFrom(name);
+            final MemorySegment a2 = gcarena.allocateFrom(value);
+            wkhtmltopdf_set_object_setting.invokeExact(os, a1, a2);
+        }
     }
 
     public static MemorySegment wkhtmltopdf_create_converter(final MemorySegment settings) throws Throwable {
@@ -454,9 +459,10 @@ public enum WKHtmlToX {
             wkhtmltopdf_add_object = Linker.nativeLinker().downcallHandle(segment, descriptor);
         }
 
-        final Arena gcarena = Arena.ofAuto();
-        final MemorySegment a1 = gcarena.allocateFrom(normalize(data));
-        wkhtmltopdf_add_object.invokeExact(converter, objectSetting, a1);
+        try (ScratchArena gcarena = ScratchArena.open()) {
+            final MemorySegment a1 = gcarena.allocateFrom(normalize(data));
+            wkhtmltopdf_add_object.invokeExact(converter, objectSetting, a1);
+        }
     }
 
     public static String wkhtmltopdf_version() throws Throwable {
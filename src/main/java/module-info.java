@@ -4,6 +4,7 @@
 module io.greenscreens.ffm {
 	
 	requires java.base;
+	requires static java.compiler;
 	requires transitive jdk.unsupported;
 	requires transitive org.slf4j;
 
@@ -12,4 +13,6 @@ module io.greenscreens.ffm {
 	exports io.greenscreens.wkhtmltox;
 	exports io.greenscreens.wkhtmltox.callback;
 
+	provides javax.annotation.processing.Processor with io.greenscreens.foreign.processor.ExternalProcessor;
+
 }
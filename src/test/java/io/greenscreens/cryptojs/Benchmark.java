@@ -0,0 +1,97 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.cryptojs;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import io.greenscreens.foreign.Batch;
+
+import io.greenscreens.foreign.ExternalFactory;
+import io.greenscreens.foreign.Instance;
+
+/**
+ * Simple benchmark comparing Proxy based call path (reflection dispatch and argument array spread)
+ * with generated exact typed MethodHandle chain for byte[] to byte[] hashing methods,
+ * and a batch run against the same number of single calls.
+ */
+public class Benchmark {
+
+    final static int WARMUP = 200_000;
+    final static int ITERATIONS = 1_000_000;
+    final static byte[] data = "The quick brown fox jumps over the lazy dog".getBytes();
+    final static byte[] hash = new byte[64];
+    final static int BATCH = 10_000;
+
+    public static void main(String[] args) throws Exception {
+
+        try (Instance<CryptoJS> proxy = ExternalFactory.createClosable(CryptoJS.class);
+             Instance<CryptoJS> generated = ExternalFactory.createGenerated(CryptoJS.class)) {
+
+            run("MD5     proxy    ", proxy.get(), c -> c.MD5(data, data.length));
+            run("MD5     generated", generated.get(), c -> c.MD5(data, data.length));
+            run("Sha_256 proxy    ", proxy.get(), c -> c.Sha_256(data, data.length));
+            run("Sha_256 generated", generated.get(), c -> c.Sha_256(data, data.length));
+            run("Sha_512 proxy    ", proxy.get(), c -> c.Sha_512(data, data.length));
+            run("Sha_512 generated", generated.get(), c -> c.Sha_512(data, data.length));
+            final double single = run("Sha_512 result   ", generated.get(), c -> c.Sha_512(data, data.length, hash));
+
+            final byte[][] messages = new byte[BATCH][];
+            final int[] lengths = new int[BATCH];
+            final byte[][] hashes = new byte[BATCH][64];
+            Arrays.fill(messages, data);
+            Arrays.fill(lengths, data.length);
+            final Batch batch = generated.batch("Sha_512", byte[].class, int.class, byte[].class)
+                    .column(0, messages).column(1, lengths).column(2, hashes);
+            final double batched = run("Sha_512 batch    ", batch);
+            System.out.println(String.format("Batch gain        : %8.2fx", single / batched));
+            scaling(batch);
+        }
+    }
+
+    static double run(final String name, final CryptoJS crypto, final Consumer<CryptoJS> call) {
+        int i = WARMUP;
+        while (--i >= 0) call.accept(crypto);
+
+        final long start = System.nanoTime();
+        i = ITERATIONS;
+        while (--i >= 0) call.accept(crypto);
+        final long time = System.nanoTime() - start;
+
+        final double op = (double) time / ITERATIONS;
+        System.out.println(String.format("%s : %8.1f ns/op", name, op));
+        return op;
+    }
+
+    /**
+     * Compare sequential and parallel batch throughput
+     */
+    static void scaling(final Batch batch) {
+        final int rounds = ITERATIONS / batch.size();
+        int i = rounds;
+        while (--i >= 0) batch.parallel();
+
+        batch.run();
+        final double sequential = batch.throughput();
+        System.out.println(batch);
+        batch.parallel();
+        System.out.println(batch);
+        System.out.println(String.format("Parallel scaling  : %8.2fx", batch.throughput() / sequential));
+    }
+
+    static double run(final String name, final Batch batch) {
+        int i = WARMUP / batch.size();
+        while (--i >= 0) batch.run();
+
+        final int rounds = ITERATIONS / batch.size();
+        final long start = System.nanoTime();
+        i = rounds;
+        while (--i >= 0) batch.run();
+        final long time = System.nanoTime() - start;
+
+        final double op = (double) time / (rounds * batch.size());
+        System.out.println(String.format("%s : %8.1f ns/op", name, op));
+        return op;
+    }
+}
@@ -23,9 +23,8 @@ public class Test {
     }
     
     static void test_rsa(final CryptoJS crypto) {
+        // on failure, ForeignException with library error description is thrown
         final String id = crypto.RSA_Generate_Key(1024, 65535);
-        System.out.println(crypto.IsError());
-        System.out.println(crypto.GetError());
         System.out.println(id);
         final boolean ok = crypto.RSA_Has_Key(id, true);
         System.out.println(ok);
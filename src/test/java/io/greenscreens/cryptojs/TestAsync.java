@@ -0,0 +1,29 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.cryptojs;
+
+import io.greenscreens.foreign.ExternalFactory;
+import io.greenscreens.foreign.Instance;
+
+/**
+ * Test asynchronous calls of long running functions, 
+ * caller thread is not blocked while RSA key is generated.
+ */
+public class TestAsync {
+
+    public static void main(String[] args) throws Exception {
+
+        try (Instance<CryptoJSAsync> instance = ExternalFactory.createAsync(CryptoJSAsync.class)) {
+            final CryptoJSAsync crypto = instance.get();
+            crypto.RSA_Generate_Key(2048, 65535)
+                .thenCompose(crypto::RSA_Export_Private_Key_Pem)
+                .thenAccept(System.out::println)
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                })
+                .join();
+        }
+    }
+}
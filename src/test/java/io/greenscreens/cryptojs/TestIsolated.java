@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.cryptojs;
+
+import io.greenscreens.foreign.ExternalFactory;
+import io.greenscreens.foreign.Instance;
+import io.greenscreens.foreign.Metrics;
+import io.greenscreens.util.ByteUtil;
+
+/**
+ * Example of library loaded in a separate worker JVM.
+ * Worker is killed between calls, next call is served by the restarted worker.
+ */
+public class TestIsolated {
+
+    final static String data = "The quick brown fox jumps over the lazy dog";
+    final static int CALLS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+
+        try (Instance<CryptoJS> instance = ExternalFactory.createIsolated(CryptoJS.class)) {
+
+            final CryptoJS crypto = instance.get();
+            System.out.println(ByteUtil.bytesToHex(crypto.MD5(data.getBytes(), data.length())));
+            measure(crypto);
+
+            ProcessHandle.current().children().forEach(worker -> {
+                System.out.println("Killing worker " + worker.pid());
+                worker.destroyForcibly();
+                worker.onExit().join();
+            });
+
+            System.out.println(ByteUtil.bytesToHex(crypto.MD5(data.getBytes(), data.length())));
+            System.out.println("Worker restarts: " + Metrics.restarts());
+            measure(crypto);
+        }
+    }
+
+    static void measure(final CryptoJS crypto) {
+        final byte[] bytes = data.getBytes();
+        final long start = System.nanoTime();
+        int i = CALLS;
+        while (--i >= 0) crypto.MD5(bytes, bytes.length);
+        System.out.println(String.format("Isolated call: %d ns/op", (System.nanoTime() - start) / CALLS));
+    }
+}
@@ -0,0 +1,29 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.cryptojs;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.greenscreens.foreign.ExternalFactory;
+import io.greenscreens.foreign.Metrics;
+
+/**
+ * Test @Blocking functions called from virtual threads, 
+ * executed on platform workers without pinning carrier threads.
+ */
+public class TestVirtual {
+
+    public static void main(String[] args) throws Exception {
+
+        final CryptoJS crypto = ExternalFactory.create(CryptoJS.class);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            int i = 16;
+            while (--i >= 0) executor.submit(() -> System.out.println(crypto.RSA_Generate_Key(2048, 65535)));
+        }
+
+        System.out.println("Pinning avoided : " + Metrics.offloaded());
+    }
+}
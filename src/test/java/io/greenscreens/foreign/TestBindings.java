@@ -0,0 +1,125 @@
+/*
+* Copyright (C) 2015, 2025 Green Screens Ltd.
+*/
+package io.greenscreens.foreign;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import io.greenscreens.cryptojs.CryptoJS;
+import io.greenscreens.cryptojs.CryptoJSAsync;
+import io.greenscreens.cryptojs.CryptoJSLowLevel;
+import io.greenscreens.foreign.annotations.External;
+import io.greenscreens.wkhtmltox.WKHtmlToPdf;
+
+/**
+ * Verify that signatures generated by the annotation processor
+ * match the signatures derived from annotations at runtime.
+ * Run from the project root, interface sources are read from src/main/java or src/test/java.
+ */
+public class TestBindings {
+
+    final static List<Class<?>> INTERFACES = List.of(CryptoJS.class, CryptoJSAsync.class, CryptoJSLowLevel.class, WKHtmlToPdf.class, Unsupported.class);
+
+    /**
+     * Method with not allowed parameter type must be skipped by both, processor and runtime
+     */
+    @External(name = "libs/cryptojs")
+    public interface Unsupported {
+        int Supported(final int value);
+        int Unsupported(final int value, final List<String> values);
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        final Path sources = Files.createTempDirectory("ffm-bindings-src");
+        final Path classes = Files.createTempDirectory("ffm-bindings-classes");
+        generate(sources, classes);
+
+        int failures = 0;
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, TestBindings.class.getClassLoader())) {
+            for (final Class<?> type : INTERFACES) {
+                failures += verify(type, loader);
+            }
+        }
+
+        System.out.println(failures == 0 ? "Generated bindings match runtime signatures" : "Mismatched signatures: " + failures);
+        if (failures > 0) System.exit(1);
+    }
+
+    /**
+     * Run annotation processor over interface sources and compile generated bindings
+     */
+    static void generate(final Path sources, final Path classes) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final String classpath = System.getProperty("java.class.path");
+        final String[] files = INTERFACES.stream()
+                .map(TestBindings::source)
+                .distinct()
+                .toArray(String[]::new);
+
+        int rc = compiler.run(null, null, null, concat(new String[] { "-proc:only", "-processor", "io.greenscreens.foreign.processor.ExternalProcessor",
+                "-cp", classpath, "-s", sources.toString() }, files));
+        if (rc != 0) throw new IllegalStateException("Annotation processing failed");
+
+        final String[] generated;
+        try (Stream<Path> stream = Files.walk(sources)) {
+            generated = stream.filter(p -> p.toString().endsWith(".java")).map(Path::toString).toArray(String[]::new);
+        }
+        rc = compiler.run(null, null, null, concat(new String[] { "-proc:none", "-cp", classpath, "-d", classes.toString() }, generated));
+        if (rc != 0) throw new IllegalStateException("Generated bindings do not compile");
+    }
+
+    /**
+     * Source file of the top level class declaring the interface
+     */
+    static String source(final Class<?> type) {
+        final String file = type.getNestHost().getName().replace('.', '/') + ".java";
+        final Path main = Path.of("src", "main", "java", file);
+        return (Files.exists(main) ? main : Path.of("src", "test", "java", file)).toString();
+    }
+
+    /**
+     * Compare generated signatures with runtime ones
+     *
+     * @return number of mismatches
+     */
+    static int verify(final Class<?> type, final ClassLoader loader) throws ReflectiveOperationException {
+        final Class<?> binding = Class.forName(type.getName() + "$FFM", true, loader);
+        final Field field = binding.getDeclaredField("SIGNATURES");
+        field.setAccessible(true);
+        final Map<String, Signature> generated = Stream.of((Signature[]) field.get(null))
+                .collect(Collectors.toMap(Signature::toString, Function.identity()));
+
+        int failures = 0;
+        for (final Method method : ForeignGenerator.allowed(type)) {
+            final Signature runtime = ForeignGenerator.signature(method);
+            final Signature signature = generated.remove(runtime.toString());
+            if (runtime.equals(signature)) continue;
+            System.out.println(type.getSimpleName() + " " + runtime + (signature == null ? " not generated" : " differs"));
+            failures++;
+        }
+        for (final Signature signature : generated.values()) {
+            System.out.println(type.getSimpleName() + " " + signature + " generated only");
+            failures++;
+        }
+        return failures;
+    }
+
+    static String[] concat(final String[] first, final String[] second) {
+        return Stream.concat(Stream.of(first), Stream.of(second)).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015, 2025 Green Screens Ltd.
+ */
+package io.greenscreens.wkhtmltox;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.greenscreens.foreign.ExternalFactory;
+import io.greenscreens.foreign.Instance;
+
+/**
+ * Example of WKHTMLTOX PDF rendering requested from multiple threads,
+ * library is initialized and called on a single owner thread.
+ */
+public class TestAffinity {
+
+    private static final String htmlFile = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+
+    public static void main(String[] args) throws Exception {
+
+        System.getProperties().setProperty("wkhtmltopdf.library.path", "libs/wkhtmltox");
+
+        try (Instance<WKHtmlToPdf> instance = ExternalFactory.createClosable(WKHtmlToPdf.class);
+             ExecutorService executor = Executors.newFixedThreadPool(4)) {
+
+            final WKHtmlToPdf pdf = instance.get();
+            System.out.println(pdf.wkhtmltopdf_version());
+            pdf.wkhtmltopdf_init(0);
+
+            int i = 4;
+            while (--i >= 0) {
+                final String file = "rendered" + i + ".pdf";
+                executor.submit(() -> System.out.println(String.format("%s rendering: %s", file, render(pdf, file))));
+            }
+            executor.shutdown();
+            while (!executor.isTerminated()) Thread.sleep(100);
+
+            pdf.wkhtmltopdf_deinit();
+        }
+    }
+
+    static boolean render(final WKHtmlToPdf pdf, final String file) {
+
+        final MemorySegment gs = pdf.wkhtmltopdf_create_global_settings();
+        final MemorySegment os = pdf.wkhtmltopdf_create_object_settings();
+
+        pdf.wkhtmltopdf_set_global_setting(gs, "out", file);
+        pdf.wkhtmltopdf_set_object_setting(os, "page", htmlFile);
+
+        final MemorySegment c = pdf.wkhtmltopdf_create_converter(gs);
+        try {
+            pdf.wkhtmltopdf_add_object(c, os, null);
+            return pdf.wkhtmltopdf_convert(c) == 1;
+        } finally {
+            pdf.wkhtmltopdf_destroy_converter(c);
+        }
+    }
+}